@@ -0,0 +1,279 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class AsyncLog prints lines on an output stream from a writer thread of its
+ * own, so that the threads that log never wait for the output device.
+ * 
+ * The lines are kept in a ring of reusable line buffers. A thread that logs
+ * claims the next free line, appends the text to it and publishes it; no
+ * string is built and no lock is taken. The writer thread copies the
+ * published lines in order into one buffered write and flushes it when there
+ * are no more lines waiting. When the ring is full because the output is
+ * slower than the lines come in, new lines are dropped and counted, and the
+ * writer prints how many were dropped.
+ * 
+ * For example:
+ * 
+ * AsyncLog.Line line = log.claim(); if (line != null) { line.append("Package
+ * number ").append(trackNumber).publish(); }
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class AsyncLog {
+
+	/**
+	 * Default number of lines in the ring.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+	/**
+	 * Time in nanoseconds the writer thread waits when there are no lines.
+	 */
+	private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+	/**
+	 * Number of characters after which the writer thread writes the lines it
+	 * has copied, even if more are waiting.
+	 */
+	private static final int BATCH_CHARS = 1 << 16;
+
+	/**
+	 * The ring of lines.
+	 */
+	private final Line[] ring;
+	/**
+	 * The number of lines in the ring less one, to find a line's place.
+	 */
+	private final int mask;
+	/**
+	 * Sequence number of the next line to claim.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**
+	 * Sequence number of the next line to write.
+	 */
+	private volatile long head;
+	/**
+	 * Number of lines dropped because the ring was full.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	/**
+	 * The output.
+	 */
+	private final Writer out;
+	/**
+	 * The thread that writes the lines.
+	 */
+	private final Thread writer;
+	/**
+	 * A flag to indicate if the log was closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a new AsyncLog object with the default capacity.
+	 * 
+	 * @param out
+	 *            The stream the lines are printed on.
+	 */
+	public AsyncLog(PrintStream out) {
+		this(out, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a new AsyncLog object.
+	 * 
+	 * @param out
+	 *            The stream the lines are printed on.
+	 * @param capacity
+	 *            Number of lines that can wait to be printed, rounded up to a
+	 *            power of 2.
+	 */
+	public AsyncLog(PrintStream out, int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) * 2;
+		ring = new Line[size];
+		for (int i = 0; i < size; ++i) {
+			ring[i] = new Line();
+		}
+		mask = size - 1;
+		this.out = new BufferedWriter(new OutputStreamWriter(out),
+				BATCH_CHARS);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "AsyncLog");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Claims a line to log. The line must be published once its text is
+	 * appended.
+	 * 
+	 * @return An empty line, or null if the line is dropped because the ring
+	 *         is full or the log is closed.
+	 */
+	public Line claim() {
+		while (!closed) {
+			long t = tail.get();
+			if (t - head >= ring.length) {
+				dropped.incrementAndGet();
+				return null;
+			}
+			if (tail.compareAndSet(t, t + 1)) {
+				Line line = ring[(int) t & mask];
+				line.seq = t;
+				line.text.setLength(0);
+				return line;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Logs a line of text.
+	 * 
+	 * @param text
+	 *            The text.
+	 */
+	public void println(String text) {
+		Line line = claim();
+		if (line != null) {
+			line.append(text).publish();
+		}
+	}
+
+	/**
+	 * Returns the number of lines dropped because the ring was full.
+	 * 
+	 * @return the number of lines dropped.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Prints the lines that were logged before this call and stops the writer
+	 * thread.
+	 * 
+	 * @throws InterruptedException
+	 *             Thrown if the calling thread is interrupted while waiting.
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		writer.join();
+	}
+
+	/**
+	 * Writes the published lines in order until the log is closed and every
+	 * claimed line is written.
+	 */
+	private void write() {
+		long reported = 0;
+		try {
+			while (true) {
+				int chars = 0;
+				Line line = ring[(int) head & mask];
+				while (chars < BATCH_CHARS && line.published == head) {
+					out.append(line.text);
+					out.write(System.lineSeparator());
+					chars += line.text.length() + 1;
+					head = head + 1;
+					line = ring[(int) head & mask];
+				}
+				long d = dropped.get();
+				if (d != reported) {
+					out.write((d - reported) + " log lines dropped"
+							+ System.lineSeparator());
+					reported = d;
+					chars += 1;
+				}
+				if (chars > 0) {
+					if (line.published != head) {
+						out.flush();
+					}
+				} else if (closed && head == tail.get()) {
+					out.flush();
+					return;
+				} else {
+					LockSupport.parkNanos(IDLE_WAIT);
+				}
+			}
+		} catch (IOException e) {
+			closed = true;
+		}
+	}
+
+	/**
+	 * Class Line is a reusable line buffer of an AsyncLog.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	public static class Line {
+		/**
+		 * The text of the line.
+		 */
+		private final StringBuilder text = new StringBuilder(128);
+		/**
+		 * Sequence number of the line while it is claimed.
+		 */
+		private long seq;
+		/**
+		 * Sequence number of the line when it was last published.
+		 */
+		private volatile long published = -1;
+
+		/**
+		 * Appends a string to the line.
+		 * 
+		 * @param s
+		 *            The string.
+		 * @return This line.
+		 */
+		public Line append(String s) {
+			text.append(s);
+			return this;
+		}
+
+		/**
+		 * Appends a number to the line.
+		 * 
+		 * @param n
+		 *            The number.
+		 * @return This line.
+		 */
+		public Line append(long n) {
+			text.append(n);
+			return this;
+		}
+
+		/**
+		 * Appends a number to the line.
+		 * 
+		 * @param d
+		 *            The number.
+		 * @return This line.
+		 */
+		public Line append(double d) {
+			text.append(d);
+			return this;
+		}
+
+		/**
+		 * Hands the line to the writer thread. The line must not be used
+		 * after it is published.
+		 */
+		public void publish() {
+			published = seq;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class CircuitBreaker keeps track of the health of a remote object. After a
+ * number of failed calls in a row the breaker opens, and callers skip the
+ * object instead of waiting for another call to fail. When the open time is
+ * over the breaker is half open: it lets a single probe call through, whose
+ * success closes the breaker and whose failure opens it for another open
+ * time. Every other caller keeps skipping the object until then.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class CircuitBreaker {
+
+	/**
+	 * State of a breaker that lets every call through.
+	 */
+	private static final int CLOSED = 0;
+	/**
+	 * State of a breaker that lets no call through.
+	 */
+	private static final int OPEN = 1;
+	/**
+	 * State of a breaker that lets the next call through as a probe.
+	 */
+	private static final int HALF_OPEN = 2;
+	/**
+	 * State of a breaker whose probe call has not ended yet.
+	 */
+	private static final int PROBING = 3;
+
+	/**
+	 * Number of failed calls in a row that opens the breaker.
+	 */
+	private final int threshold;
+	/**
+	 * Time in milliseconds the breaker stays open.
+	 */
+	private final long openTime;
+	/**
+	 * A timer that lets calls through again when the open time is over.
+	 */
+	private final ScheduledExecutorService scheduler;
+	/**
+	 * Number of failed calls in a row.
+	 */
+	private int failures = 0;
+	/**
+	 * The state of the breaker.
+	 */
+	private int state = CLOSED;
+
+	/**
+	 * Constructs a new, closed CircuitBreaker object.
+	 * 
+	 * @param threshold
+	 *            Number of failed calls in a row that opens the breaker.
+	 * @param openTime
+	 *            Time in milliseconds the breaker stays open.
+	 * @param scheduler
+	 *            A timer that lets calls through again when the open time is
+	 *            over.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the threshold is not positive or the open time is
+	 *             negative.
+	 */
+	public CircuitBreaker(int threshold, long openTime,
+			ScheduledExecutorService scheduler) {
+		if (threshold < 1 || openTime < 0) {
+			throw new IllegalArgumentException(
+					"CircuitBreaker: Invalid settings: " + threshold
+							+ " failures, " + openTime + " ms");
+		}
+		this.threshold = threshold;
+		this.openTime = openTime;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Returns true if a call to the remote object is to be skipped. While the
+	 * breaker is half open, the first caller claims the probe and gets false;
+	 * it must then make the call and record its success or failure. Every
+	 * other caller gets true until the probe has ended.
+	 * 
+	 * @return True if the caller skips the call.
+	 */
+	public synchronized boolean isOpen() {
+		if (state == HALF_OPEN) {
+			state = PROBING;
+			return false;
+		}
+		return state != CLOSED;
+	}
+
+	/**
+	 * Returns true if a call to the remote object would be let through,
+	 * without claiming the probe of a half open breaker.
+	 * 
+	 * @return True if the breaker is closed or its probe is not claimed.
+	 */
+	public synchronized boolean isCallable() {
+		return state == CLOSED || state == HALF_OPEN;
+	}
+
+	/**
+	 * Records a call that reached the remote object, which closes the
+	 * breaker.
+	 */
+	public synchronized void success() {
+		failures = 0;
+		state = CLOSED;
+	}
+
+	/**
+	 * Records a call that failed. A failed probe opens the breaker again.
+	 * 
+	 * @return True if this failure opened the breaker.
+	 */
+	public synchronized boolean failure() {
+		++failures;
+		if (state == OPEN || state == CLOSED && failures < threshold) {
+			return false;
+		}
+		state = OPEN;
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				halfOpen();
+			}
+		}, openTime, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Lets a probe call through after the open time.
+	 */
+	private synchronized void halfOpen() {
+		if (state == OPEN) {
+			state = HALF_OPEN;
+		}
+	}
+}
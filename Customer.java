@@ -1,5 +1,7 @@
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.rit.ds.RemoteEventListener;
 import edu.rit.ds.registry.NotBoundException;
@@ -12,6 +14,13 @@ import edu.rit.ds.registry.RegistryProxy;
  * beamed, the customer listens to the notification events generated by various
  * GPSOffice objects.
  * 
+ * Usage: java Customer <"host"> <"port"> <"name"> <"X"> <"Y"> [<"X"> <"Y">
+ * ...] where more than one destination sends the packages as one batch.
+ * 
+ * Load mode: java Customer <"host"> <"port"> -load <"packages"> <"rate">
+ * <"concurrency"> <"names"> <"X1"> <"Y1"> <"X2"> <"Y2"> sends many packages
+ * from this one process; see LoadGenerator.
+ * 
  * @author Chinmay Dani
  * 
  */
@@ -30,21 +39,29 @@ public class Customer {
 	 */
 	private static String name;
 	/**
-	 * Destination's X coordinate.
+	 * Destinations' X coordinates.
 	 */
-	private static double x;
+	private static double[] x;
 	/**
-	 * Destination's X coordinate.
+	 * Destinations' Y coordinates.
 	 */
-	private static double y;
+	private static double[] y;
 	/**
 	 * Used to store the receipt object for the package to be sent.
 	 */
 	private static Receipt receipt;
+	/**
+	 * Number of packages that are neither delivered, lost nor rejected yet.
+	 */
+	private static AtomicInteger remaining;
 	/**
 	 * A registry proxy reference.
 	 */
 	private static RegistryProxy proxy;
+	/**
+	 * The log that prints the events without holding up the listener.
+	 */
+	private static AsyncLog log = new AsyncLog(System.out);
 
 	/**
 	 * The main method.
@@ -56,10 +73,15 @@ public class Customer {
 	 *             arguments.
 	 */
 	public static void main(String[] args) {
+		if (args.length > 2 && args[2].equals("-load")) {
+			load(args);
+			return;
+		}
+
 		// Parse the command line arguments.
-		if (args.length != 5) {
-			System.out
-					.println("Usage: java Customer <host> <port> <name> <X> <Y>");
+		if (args.length < 5 || args.length % 2 == 0) {
+			System.out.println("Usage: java Customer <host> <port> <name> "
+					+ "<X> <Y> [<X> <Y> ...]");
 			System.exit(0);
 		}
 		host = args[0];
@@ -70,18 +92,24 @@ public class Customer {
 					+ args[1]);
 		}
 		name = args[2];
-		try {
-			x = Double.parseDouble(args[3]);
-		} catch (NumberFormatException nfe) {
-			throw new IllegalArgumentException("Customer: Invalid <X>: "
-					+ args[3]);
-		}
-		try {
-			y = Double.parseDouble(args[4]);
-		} catch (NumberFormatException nfe) {
-			throw new IllegalArgumentException("Customer: Invalid <Y>: "
-					+ args[4]);
+		int count = (args.length - 3) / 2;
+		x = new double[count];
+		y = new double[count];
+		for (int i = 0; i < count; ++i) {
+			try {
+				x[i] = Double.parseDouble(args[3 + 2 * i]);
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("Customer: Invalid <X>: "
+						+ args[3 + 2 * i]);
+			}
+			try {
+				y[i] = Double.parseDouble(args[4 + 2 * i]);
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("Customer: Invalid <Y>: "
+						+ args[4 + 2 * i]);
+			}
 		}
+		remaining = new AtomicInteger(count);
 
 		// Create a PackageListener object to listen to GPSOfficeEvent remote
 		// events.
@@ -94,13 +122,17 @@ public class Customer {
 			System.exit(0);
 		}
 
-		// Lookup the name of the starting GPS office and send the package to it
-		// along with the destination location.
+		// Lookup the name of the starting GPS office and send the packages to
+		// it along with the destination locations.
 		GPSOfficeInterface gpsOffice;
 		try {
 			proxy = new RegistryProxy(host, port);
 			gpsOffice = (GPSOfficeInterface) proxy.lookup(name);
-			gpsOffice.sendPackage(x, y, listener);
+			if (x.length == 1) {
+				gpsOffice.sendPackage(x[0], y[0], listener);
+			} else {
+				gpsOffice.sendPackages(x, y, listener);
+			}
 		} catch (RemoteException e) {
 			if (receipt != null)
 				System.out.println("Package number " + receipt.getTrackNumber()
@@ -122,6 +154,31 @@ public class Customer {
 		}
 	}
 
+	/**
+	 * Runs the load mode and exits.
+	 */
+	private static void load(String[] args) {
+		String[] loadArgs = new String[args.length - 1];
+		loadArgs[0] = args[0];
+		loadArgs[1] = args[1];
+		System.arraycopy(args, 3, loadArgs, 2, args.length - 3);
+		try {
+			new LoadGenerator(loadArgs).run();
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		} catch (RemoteException e) {
+			System.out.println("Cannot connect to the registry server at "
+					+ args[0] + ":" + args[1]);
+			e.printStackTrace();
+		} catch (NotBoundException e) {
+			System.out.println("A starting office is not present");
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			System.out.println("Load test interrupted");
+		}
+		System.exit(0);
+	}
+
 	/**
 	 * Class PackageEventListener is a RemoteEventListener encapsulation that
 	 * specifically listens to remote events of the type GPSOfficeEvent.
@@ -133,46 +190,113 @@ public class Customer {
 			RemoteEventListener<GPSOfficeEvent> {
 
 		/**
-		 * Performs actions after receiving events.
+		 * Largest number of received events that wait to be handled.
+		 */
+		private static final int EVENT_QUEUE_CAPACITY = 10000;
+		/**
+		 * A thread pool that handles the received events one at a time, so
+		 * that the remote call that reports an event returns at once. When
+		 * EVENT_QUEUE_CAPACITY events are waiting, the call waits for room
+		 * instead, which slows down the GPS offices reporting the events.
+		 */
+		private ExecutorService events = GPSExecutors
+				.newSerialExecutor(EVENT_QUEUE_CAPACITY);
+
+		/**
+		 * Hands a received event to the thread pool.
 		 */
 		@Override
-		public void report(long seq, GPSOfficeEvent event)
+		public void report(long seq, final GPSOfficeEvent event)
 				throws RemoteException {
+			events.execute(new Runnable() {
+				@Override
+				public void run() {
+					handle(event);
+				}
+			});
+		}
+
+		/**
+		 * Performs actions after receiving events.
+		 * 
+		 * @param event
+		 *            the received event.
+		 */
+		private void handle(GPSOfficeEvent event) {
 			// Gets the instance of the receipt object.
 			if (receipt == null)
 				receipt = event.getReceipt();
 
 			if (event != null) {
+				// If the package is rejected by a full office.
+				if (event.isRejected()) {
+					print(event, " rejected by ");
+					finish();
+				}
 				// If the package is lost by an office.
-				if (event.isLost()) {
-					System.out.println("Package number "
-							+ receipt.getTrackNumber() + " lost by "
-							+ event.getCurrentOffice() + " office");
-					System.exit(0);
+				else if (event.isLost()) {
+					print(event, " lost by ");
+					finish();
 				}
 				// If the package is delivered by an office.
 				else if (event.isDelivered()) {
-					System.out.println("Package number "
-							+ receipt.getTrackNumber() + " delivered from "
-							+ event.getCurrentOffice() + " office to (" + x
-							+ "," + y + ")");
-					System.exit(0);
+					AsyncLog.Line line = log.claim();
+					if (line != null) {
+						line.append("Package number ")
+								.append(event.getReceipt().getTrackNumber())
+								.append(" delivered from ")
+								.append(event.getCurrentOffice())
+								.append(" office to (")
+								.append(event.getReceipt().getX()).append(",")
+								.append(event.getReceipt().getY()).append(")")
+								.publish();
+					}
+					finish();
 				}
 				// If the package arrives at an office or departs from an
 				// office.
 				else {
 					if (event.isArrived()) {
-						System.out.println("Package number "
-								+ receipt.getTrackNumber() + " arrived at "
-								+ event.getCurrentOffice() + " office");
+						print(event, " arrived at ");
 					} else {
-						System.out.println("Package number "
-								+ receipt.getTrackNumber() + " departed from "
-								+ event.getCurrentOffice() + " office");
+						print(event, " departed from ");
 					}
 				}
 			}
 		}
 
+		/**
+		 * Logs a line about the package of an event and the office that
+		 * generated it.
+		 * 
+		 * @param event
+		 *            the received event.
+		 * @param what
+		 *            the text between the track number and the office name.
+		 */
+		private void print(GPSOfficeEvent event, String what) {
+			AsyncLog.Line line = log.claim();
+			if (line != null) {
+				line.append("Package number ")
+						.append(event.getReceipt().getTrackNumber())
+						.append(what).append(event.getCurrentOffice())
+						.append(" office").publish();
+			}
+		}
+
+		/**
+		 * Exits once every package sent by this customer is either delivered,
+		 * lost or rejected.
+		 */
+		private void finish() {
+			if (remaining.decrementAndGet() == 0) {
+				try {
+					log.close();
+				} catch (InterruptedException e) {
+				}
+				System.exit(0);
+			}
+		}
+
 	}
 }
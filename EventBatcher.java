@@ -0,0 +1,282 @@
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.ds.Lease;
+import edu.rit.ds.RemoteEventGenerator;
+import edu.rit.ds.RemoteEventListener;
+
+/**
+ * Class EventBatcher collects the GPSOfficeEvents of a GPS office and reports
+ * them to its listeners as GPSOfficeEventBatches. A batch is reported when it
+ * holds the maximum number of events or when its oldest event has waited for
+ * the maximum delay, whichever comes first. The events keep the order in
+ * which they were reported.
+ * 
+ * The batcher hands out its own leases, which pass renewals and cancellations
+ * on to the leases of the remote event generator. A lease that is cancelled,
+ * or that is not renewed for LEASE_TIME, is dropped; a batcher with no leases
+ * left is idle and is closed, so that the GPS office can forget it.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class EventBatcher {
+
+	/**
+	 * Time in milliseconds after its last renewal that a lease is dropped.
+	 * It is longer than the time between two renewals of a listener.
+	 */
+	public static final long LEASE_TIME = 120000;
+
+	/**
+	 * Largest time in milliseconds an event waits before its batch is
+	 * reported.
+	 */
+	private final long maxDelay;
+	/**
+	 * Largest number of events in a batch.
+	 */
+	private final int maxSize;
+	/**
+	 * A timer that reports a batch when its delay is over.
+	 */
+	private final ScheduledExecutorService scheduler;
+	/**
+	 * A remote event generator that reports the batches to the listeners.
+	 */
+	private final RemoteEventGenerator<GPSOfficeEventBatch> generator = new RemoteEventGenerator<GPSOfficeEventBatch>();
+	/**
+	 * The events of the current batch.
+	 */
+	private List<GPSOfficeEvent> events = new ArrayList<GPSOfficeEvent>();
+	/**
+	 * Number of batches reported so far. It identifies the current batch.
+	 */
+	private long batches = 0;
+	/**
+	 * The leases of the listeners.
+	 */
+	private final Set<BatchLease> leases = new HashSet<BatchLease>();
+	/**
+	 * True if the batcher is closed because it has no listeners left.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Constructs a new EventBatcher object.
+	 * 
+	 * @param maxDelay
+	 *            Largest time in milliseconds an event waits before its batch
+	 *            is reported.
+	 * @param maxSize
+	 *            Largest number of events in a batch.
+	 * @param scheduler
+	 *            A timer that reports a batch when its delay is over.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the delay is negative or the size is not positive.
+	 */
+	public EventBatcher(long maxDelay, int maxSize,
+			ScheduledExecutorService scheduler) {
+		if (maxDelay < 0 || maxSize < 1) {
+			throw new IllegalArgumentException("EventBatcher: Invalid window: "
+					+ maxDelay + " ms, " + maxSize + " events");
+		}
+		this.maxDelay = maxDelay;
+		this.maxSize = maxSize;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Adds a listener that receives the batches.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @return Lease object for the given listener, or null if the batcher is
+	 *         closed.
+	 * @throws RemoteException
+	 *             Thrown if there is a remote error.
+	 */
+	public synchronized Lease addListener(
+			RemoteEventListener<GPSOfficeEventBatch> listener)
+			throws RemoteException {
+		if (closed) {
+			return null;
+		}
+		BatchLease lease = new BatchLease(generator.addListener(listener));
+		UnicastRemoteObject.exportObject(lease, 0);
+		leases.add(lease);
+		return lease;
+	}
+
+	/**
+	 * Drops the leases that were not renewed in time, and closes the batcher
+	 * if no lease is left.
+	 * 
+	 * @return True if the batcher is closed.
+	 */
+	public synchronized boolean closeIfIdle() {
+		long time = System.currentTimeMillis() - LEASE_TIME;
+		Iterator<BatchLease> iterator = leases.iterator();
+		while (iterator.hasNext()) {
+			BatchLease lease = iterator.next();
+			if (lease.renewed < time) {
+				iterator.remove();
+				unexport(lease);
+				try {
+					lease.lease.cancel();
+				} catch (RemoteException e) {
+				}
+			}
+		}
+		if (leases.isEmpty()) {
+			closed = true;
+			events.clear();
+		}
+		return closed;
+	}
+
+	/**
+	 * Drops a lease.
+	 * 
+	 * @param lease
+	 *            The lease.
+	 * @return True if the lease was held.
+	 */
+	private synchronized boolean drop(BatchLease lease) {
+		if (!leases.remove(lease)) {
+			return false;
+		}
+		unexport(lease);
+		return true;
+	}
+
+	/**
+	 * Stops a lease from receiving remote calls.
+	 * 
+	 * @param lease
+	 *            The lease.
+	 */
+	private static void unexport(BatchLease lease) {
+		try {
+			UnicastRemoteObject.unexportObject(lease, true);
+		} catch (NoSuchObjectException e) {
+		}
+	}
+
+	/**
+	 * Adds an event to the current batch.
+	 * 
+	 * @param event
+	 *            The event.
+	 */
+	public synchronized void reportEvent(GPSOfficeEvent event) {
+		if (closed) {
+			return;
+		}
+		events.add(event);
+		if (events.size() >= maxSize) {
+			flush();
+		} else if (events.size() == 1) {
+			final long batch = batches;
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush(batch);
+				}
+			}, maxDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Reports a batch whose delay is over, unless it was already reported
+	 * because it was full.
+	 * 
+	 * @param batch
+	 *            The number of the batch.
+	 */
+	private synchronized void flush(long batch) {
+		if (batch == batches) {
+			flush();
+		}
+	}
+
+	/**
+	 * Reports the current batch and starts a new one.
+	 */
+	private synchronized void flush() {
+		if (!events.isEmpty()) {
+			generator.reportEvent(new GPSOfficeEventBatch(events));
+			events = new ArrayList<GPSOfficeEvent>();
+			++batches;
+		}
+	}
+
+	/**
+	 * Class BatchLease is the lease of a listener of the batches. It passes
+	 * renewals and cancellations on to the lease of the remote event
+	 * generator, and remembers when it was last renewed.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private class BatchLease implements Lease {
+
+		/**
+		 * The lease of the remote event generator.
+		 */
+		private final Lease lease;
+		/**
+		 * Time in milliseconds when the lease was last renewed.
+		 */
+		private volatile long renewed = System.currentTimeMillis();
+
+		/**
+		 * Constructs a new BatchLease object.
+		 * 
+		 * @param lease
+		 *            The lease of the remote event generator.
+		 */
+		public BatchLease(Lease lease) {
+			this.lease = lease;
+		}
+
+		/**
+		 * Renews the lease.
+		 * 
+		 * @throws RemoteException
+		 *             Thrown if the lease was dropped or if there is a remote
+		 *             error.
+		 */
+		@Override
+		public void renew() throws RemoteException {
+			synchronized (EventBatcher.this) {
+				if (!leases.contains(this)) {
+					throw new RemoteException("EventBatcher: Lease expired");
+				}
+				renewed = System.currentTimeMillis();
+			}
+			lease.renew();
+		}
+
+		/**
+		 * Cancels the lease.
+		 * 
+		 * @throws RemoteException
+		 *             Thrown if there is a remote error.
+		 */
+		@Override
+		public void cancel() throws RemoteException {
+			if (drop(this)) {
+				lease.cancel();
+			}
+		}
+	}
+}
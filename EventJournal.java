@@ -0,0 +1,590 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class EventJournal is an append-only record of the GPSOfficeEvents received
+ * by the Headquarters. The journal is a directory of segment files of a fixed
+ * size, named events-<"n">.journal, that are written through memory mapped
+ * buffers.
+ * 
+ * The events are appended by a writer thread of their own: append only puts
+ * the event on a queue. The writer takes all the events that are waiting,
+ * writes them and then forces the segment to the disk once for all of them,
+ * so the cost of a disk flush is shared by every event that came in while the
+ * previous one was being made. The queue is bounded: when the writer falls
+ * that far behind, append waits for room, so that the callers are held up
+ * instead of the memory filling. If the writer fails, the journal is closed,
+ * and the events that were waiting and all later ones are counted as not
+ * journaled.
+ * 
+ * Every record is a length followed by the status byte, the track number, the
+ * time the event was generated, the destination coordinates and the name of
+ * the GPS office. The length is written after the rest of the record, so a
+ * record that was cut short by a crash reads as the end of the segment, and
+ * so does a record whose status or name does not agree with its length. An
+ * office name too long for a record is cut short.
+ * 
+ * The journal of a directory can be printed with the following command, one
+ * line for every event: the time it was generated, the status, the track
+ * number, the GPS office and the destination.
+ * 
+ * Usage: java EventJournal <"directory">
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class EventJournal {
+
+	/**
+	 * Default size of a segment file in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	/**
+	 * Default number of events that may wait to be written.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	/**
+	 * Status of a package that has arrived at a GPS office.
+	 */
+	private static final byte ARRIVED = 1;
+	/**
+	 * Status of a package that has left a GPS office.
+	 */
+	private static final byte DEPARTED = 2;
+	/**
+	 * Status of a package that was delivered to the destination.
+	 */
+	private static final byte DELIVERED = 3;
+	/**
+	 * Status of a package that was lost.
+	 */
+	private static final byte LOST = 4;
+	/**
+	 * Status of a package that was rejected by a full GPS office.
+	 */
+	private static final byte REJECTED = 5;
+	/**
+	 * Names of the statuses, indexed by status.
+	 */
+	private static final String[] STATUS_NAMES = { null, "arrived",
+			"departed", "delivered", "lost", "rejected" };
+	/**
+	 * Number of bytes of a record besides the office name: the length, the
+	 * status, the track number, the time, the coordinates and the name
+	 * length.
+	 */
+	private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 8 + 8 + 8 + 2;
+	/**
+	 * The encoding of the office names.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/**
+	 * The entry that tells the writer thread to stop.
+	 */
+	private static final Entry CLOSE = new Entry(null, 0);
+
+	/**
+	 * The directory of the segment files.
+	 */
+	private final File directory;
+	/**
+	 * Size of a segment file in bytes.
+	 */
+	private final int segmentSize;
+	/**
+	 * The events that wait to be written.
+	 */
+	private final BlockingQueue<Entry> queue;
+	/**
+	 * Largest number of bytes of an office name in a record.
+	 */
+	private final int maxNameLength;
+	/**
+	 * The thread that writes the events.
+	 */
+	private final Thread writer;
+	/**
+	 * Number of the segment being written.
+	 */
+	private int segment;
+	/**
+	 * The file of the segment being written.
+	 */
+	private RandomAccessFile file;
+	/**
+	 * The memory mapped buffer of the segment being written.
+	 */
+	private MappedByteBuffer buffer;
+	/**
+	 * Number of events written.
+	 */
+	private volatile long written;
+	/**
+	 * Number of times the segment was forced to the disk.
+	 */
+	private volatile long commits;
+	/**
+	 * Number of events that were not journaled because the writer failed.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	/**
+	 * A flag to indicate if the journal was closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a new EventJournal object that appends to a journal
+	 * directory, with room for DEFAULT_CAPACITY waiting events.
+	 * 
+	 * @param directory
+	 *            The directory of the segment files, which is created if it
+	 *            does not exist.
+	 * @param segmentSize
+	 *            Size of a segment file in bytes.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the segment size is too small for a record.
+	 * @throws IOException
+	 *             Thrown if the directory or the first segment cannot be
+	 *             created.
+	 */
+	public EventJournal(File directory, int segmentSize) throws IOException {
+		this(directory, segmentSize, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a new EventJournal object that appends to a journal
+	 * directory. The events are written to a new segment that follows the
+	 * segments already in the directory.
+	 * 
+	 * @param directory
+	 *            The directory of the segment files, which is created if it
+	 *            does not exist.
+	 * @param segmentSize
+	 *            Size of a segment file in bytes.
+	 * @param capacity
+	 *            Largest number of events that wait to be written; append
+	 *            waits when that many are waiting.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the segment size is too small for a record or the
+	 *             capacity is not positive.
+	 * @throws IOException
+	 *             Thrown if the directory or the first segment cannot be
+	 *             created.
+	 */
+	public EventJournal(File directory, int segmentSize, int capacity)
+			throws IOException {
+		if (segmentSize <= RECORD_OVERHEAD || capacity < 1) {
+			throw new IllegalArgumentException(
+					"EventJournal: Invalid settings: " + segmentSize
+							+ " bytes per segment, " + capacity + " events");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("EventJournal: Cannot create " + directory);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		maxNameLength = Math.min(0xffff, segmentSize - RECORD_OVERHEAD);
+		queue = new LinkedBlockingQueue<Entry>(capacity);
+		int[] existing = segments(directory);
+		segment = existing.length == 0 ? 0 : existing[existing.length - 1];
+		openSegment();
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "EventJournal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Appends an event to the journal. The event is written by the writer
+	 * thread; this method does not wait for it unless too many events are
+	 * waiting, and then it waits for room as long as the writer runs. An
+	 * event appended after the journal is closed is not journaled.
+	 * 
+	 * @param event
+	 *            The event.
+	 * @param time
+	 *            Time in milliseconds when the GPS office generated the event.
+	 */
+	public void append(GPSOfficeEvent event, long time) {
+		Entry entry = new Entry(event, time);
+		boolean interrupted = false;
+		try {
+			while (!closed && writer.isAlive()) {
+				try {
+					if (queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+						return;
+					}
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		dropped.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of events written to the journal.
+	 * 
+	 * @return the number of events written.
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Returns the number of times the journal was forced to the disk.
+	 * 
+	 * @return the number of group commits.
+	 */
+	public long getCommits() {
+		return commits;
+	}
+
+	/**
+	 * Returns the number of events that were not journaled because the
+	 * writer failed or the journal was closed.
+	 * 
+	 * @return the number of dropped events.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the events that are waiting, forces them to the disk and stops
+	 * the writer thread.
+	 * 
+	 * @throws InterruptedException
+	 *             Thrown if the calling thread is interrupted while waiting.
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		while (writer.isAlive()
+				&& !queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {
+		}
+		writer.join();
+	}
+
+	/**
+	 * Writes the events from the queue until the journal is closed.
+	 */
+	private void write() {
+		List<Entry> batch = new ArrayList<Entry>();
+		boolean done = false;
+		try {
+			while (!done) {
+				try {
+					batch.add(queue.take());
+				} catch (InterruptedException e) {
+					continue;
+				}
+				queue.drainTo(batch);
+				int count = 0;
+				for (Entry entry : batch) {
+					if (entry == CLOSE) {
+						done = true;
+					} else {
+						writeRecord(entry);
+						++count;
+					}
+				}
+				buffer.force();
+				written += count;
+				++commits;
+				batch.clear();
+			}
+			file.close();
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Closes the journal after the writer failed and frees the events that
+	 * wait to be written.
+	 * 
+	 * @param e
+	 *            The exception that stopped the writer.
+	 */
+	private void fail(Exception e) {
+		closed = true;
+		System.out.println("Cannot write the event journal in " + directory
+				+ ", no more events are journaled.");
+		e.printStackTrace();
+		dropped.addAndGet(queue.size());
+		queue.clear();
+		try {
+			file.close();
+		} catch (IOException ioe) {
+		}
+	}
+
+	/**
+	 * Writes one record to the segment, moving to a new segment if it does
+	 * not fit.
+	 */
+	private void writeRecord(Entry entry) throws IOException {
+		GPSOfficeEvent event = entry.event;
+		byte[] name = event.getCurrentOffice().getBytes(UTF8);
+		if (name.length > maxNameLength) {
+			// Cut the name at the start of a character.
+			int n = maxNameLength;
+			while (n > 0 && (name[n] & 0xc0) == 0x80) {
+				--n;
+			}
+			name = Arrays.copyOf(name, n);
+		}
+		int length = RECORD_OVERHEAD + name.length;
+		if (buffer.remaining() < length) {
+			buffer.force();
+			file.close();
+			++segment;
+			openSegment();
+		}
+		int start = buffer.position();
+		buffer.position(start + 4);
+		buffer.put(status(event));
+		buffer.putLong(event.getReceipt().getTrackNumber());
+		buffer.putLong(entry.time);
+		buffer.putDouble(event.getReceipt().getX());
+		buffer.putDouble(event.getReceipt().getY());
+		buffer.putShort((short) name.length);
+		buffer.put(name);
+		buffer.putInt(start, length);
+	}
+
+	/**
+	 * Creates the segment file with the current number and maps it.
+	 */
+	private void openSegment() throws IOException {
+		File f = segmentFile(directory, segment);
+		while (f.exists()) {
+			f = segmentFile(directory, ++segment);
+		}
+		file = new RandomAccessFile(f, "rw");
+		file.setLength(segmentSize);
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				segmentSize);
+	}
+
+	/**
+	 * Reads all the events of a journal directory, oldest first, and passes
+	 * them to a handler. Every segment is read up to its first record that
+	 * was cut short or does not agree with its length.
+	 * 
+	 * @param directory
+	 *            The directory of the segment files.
+	 * @param handler
+	 *            The handler of the events.
+	 * @return The number of events read.
+	 * @throws IOException
+	 *             Thrown if a segment cannot be read.
+	 */
+	public static long replay(File directory, Handler handler)
+			throws IOException {
+		long count = 0;
+		for (int n : segments(directory)) {
+			RandomAccessFile f = new RandomAccessFile(segmentFile(directory,
+					n), "r");
+			try {
+				MappedByteBuffer in = f.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, 0, f.length());
+				while (in.remaining() >= RECORD_OVERHEAD) {
+					int start = in.position();
+					int length = in.getInt();
+					if (length < RECORD_OVERHEAD
+							|| length > in.remaining() + 4) {
+						break;
+					}
+					byte status = in.get();
+					if (status < ARRIVED || status > REJECTED) {
+						break;
+					}
+					long trackNumber = in.getLong();
+					long time = in.getLong();
+					double x = in.getDouble();
+					double y = in.getDouble();
+					int nameLength = in.getShort() & 0xffff;
+					if (RECORD_OVERHEAD + nameLength > length) {
+						break;
+					}
+					byte[] name = new byte[nameLength];
+					in.get(name);
+					in.position(start + length);
+					handler.event(
+							event(status, new Receipt(trackNumber, x, y),
+									new String(name, UTF8).intern()), time);
+					++count;
+				}
+			} finally {
+				f.close();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Prints the events of a journal directory.
+	 * 
+	 * @param args
+	 *            command line arguments.
+	 * @throws IOException
+	 *             Thrown if the journal cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: java EventJournal <directory>");
+			System.exit(0);
+		}
+		final long[] counts = new long[REJECTED + 1];
+		long total = replay(new File(args[0]), new Handler() {
+			public void event(GPSOfficeEvent event, long time) {
+				++counts[status(event)];
+				System.out.println(time + " " + STATUS_NAMES[status(event)]
+						+ " " + event.getReceipt().getTrackNumber() + " "
+						+ event.getCurrentOffice() + " "
+						+ event.getReceipt().getX() + " "
+						+ event.getReceipt().getY());
+			}
+		});
+		System.out.println(total + " events: " + counts[ARRIVED]
+				+ " arrived, " + counts[DEPARTED] + " departed, "
+				+ counts[DELIVERED] + " delivered, " + counts[LOST]
+				+ " lost, " + counts[REJECTED] + " rejected");
+	}
+
+	/**
+	 * Returns the status byte of an event.
+	 */
+	private static byte status(GPSOfficeEvent event) {
+		if (event.isRejected()) {
+			return REJECTED;
+		} else if (event.isLost()) {
+			return LOST;
+		} else if (event.isDelivered()) {
+			return DELIVERED;
+		} else if (event.isArrived()) {
+			return ARRIVED;
+		} else {
+			return DEPARTED;
+		}
+	}
+
+	/**
+	 * Returns the event of a status byte.
+	 */
+	private static GPSOfficeEvent event(byte status, Receipt receipt,
+			String office) throws IOException {
+		switch (status) {
+		case REJECTED:
+			return GPSOfficeEvent.rejected(receipt, office);
+		case LOST:
+			return new GPSOfficeEvent(receipt, office, true, false, false);
+		case DELIVERED:
+			return new GPSOfficeEvent(receipt, office, false, true, false);
+		case ARRIVED:
+			return new GPSOfficeEvent(receipt, office, false, false, true);
+		case DEPARTED:
+			return new GPSOfficeEvent(receipt, office, false, false, false);
+		default:
+			throw new IOException("EventJournal: Invalid status: " + status);
+		}
+	}
+
+	/**
+	 * Returns the numbers of the segment files in a directory, in order.
+	 */
+	private static int[] segments(File directory) {
+		String[] names = directory.list();
+		if (names == null) {
+			return new int[0];
+		}
+		int[] numbers = new int[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (name.startsWith("events-") && name.endsWith(".journal")) {
+				try {
+					numbers[count] = Integer.parseInt(name.substring(7,
+							name.length() - 8));
+					++count;
+				} catch (NumberFormatException nfe) {
+				}
+			}
+		}
+		numbers = Arrays.copyOf(numbers, count);
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Returns the file of a segment.
+	 */
+	private static File segmentFile(File directory, int n) {
+		return new File(directory, String.format("events-%08d.journal", n));
+	}
+
+	/**
+	 * Interface Handler receives the events read from a journal.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	public interface Handler {
+		/**
+		 * Handles one event.
+		 * 
+		 * @param event
+		 *            The event.
+		 * @param time
+		 *            Time in milliseconds when the GPS office generated the event.
+		 */
+		public void event(GPSOfficeEvent event, long time);
+	}
+
+	/**
+	 * Class Entry is an event that waits to be written.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Entry {
+		/**
+		 * The event.
+		 */
+		public final GPSOfficeEvent event;
+		/**
+		 * Time in milliseconds when the GPS office generated the event.
+		 */
+		public final long time;
+
+		/**
+		 * Construct a new Entry object.
+		 */
+		public Entry(GPSOfficeEvent event, long time) {
+			this.event = event;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.rit.ds.Lease;
+import edu.rit.ds.RemoteEventGenerator;
+import edu.rit.ds.RemoteEventListener;
+
+/**
+ * Class EventSession is the delivery channel of the events of one customer
+ * listener at a GPS office. It is created and evicted by an EventSessionCache.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class EventSession {
+	/**
+	 * The customer listener.
+	 */
+	private final RemoteEventListener<GPSOfficeEvent> listener;
+	/**
+	 * The cache that created this session, which also tells the time.
+	 */
+	private final EventSessionCache cache;
+	/**
+	 * A flag to indicate if the events are reported to the listener directly.
+	 */
+	private final boolean direct;
+	/**
+	 * A remote event generator that reports to the listener, or null until
+	 * the session is first acquired or if the events are reported to the
+	 * listener directly.
+	 */
+	private volatile RemoteEventGenerator<GPSOfficeEvent> generator;
+	/**
+	 * Sequence number of the next event reported directly.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+	/**
+	 * The lease of the listener, or null if it could not be added.
+	 */
+	private Lease lease;
+	/**
+	 * Number of packages that use this session.
+	 */
+	private int users;
+	/**
+	 * Time when this session was last acquired or released.
+	 */
+	private long lastUsed;
+	/**
+	 * A flag to indicate if this session was evicted.
+	 */
+	private boolean evicted;
+
+	/**
+	 * Construct a new EventSession object. The listener is added to a remote
+	 * event generator only when the session is first acquired, so a session
+	 * that loses the race to be put in the cache holds no lease.
+	 * 
+	 * @param listener
+	 *            The customer listener.
+	 * @param direct
+	 *            True if the events are reported to the listener on the
+	 *            calling thread, for a listener in the same JVM.
+	 * @param cache
+	 *            The cache that creates the session.
+	 */
+	EventSession(RemoteEventListener<GPSOfficeEvent> listener, boolean direct,
+			EventSessionCache cache) {
+		this.listener = listener;
+		this.direct = direct;
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the customer listener.
+	 * 
+	 * @return the customer listener.
+	 */
+	public RemoteEventListener<GPSOfficeEvent> getListener() {
+		return listener;
+	}
+
+	/**
+	 * Reports an event to the customer listener.
+	 * 
+	 * @param event
+	 *            The event.
+	 */
+	public void reportEvent(GPSOfficeEvent event) {
+		RemoteEventGenerator<GPSOfficeEvent> g = generator;
+		if (g != null) {
+			g.reportEvent(event);
+			return;
+		}
+		try {
+			listener.report(sequence.getAndIncrement(), event);
+		} catch (RemoteException e) {
+		}
+	}
+
+	/**
+	 * Ends one use of this session.
+	 */
+	public synchronized void release() {
+		--users;
+		lastUsed = cache.now();
+	}
+
+	/**
+	 * Starts one use of this session.
+	 * 
+	 * @return True if the session is usable, false if it was evicted.
+	 */
+	synchronized boolean acquire() {
+		if (evicted) {
+			return false;
+		}
+		if (!direct && generator == null) {
+			open();
+		}
+		++users;
+		lastUsed = cache.now();
+		return true;
+	}
+
+	/**
+	 * Adds the listener to a new remote event generator.
+	 */
+	private void open() {
+		RemoteEventGenerator<GPSOfficeEvent> g = new RemoteEventGenerator<GPSOfficeEvent>();
+		try {
+			lease = g.addListener(listener);
+		} catch (RemoteException e) {
+			System.out.println("Could not add the listener successfully.");
+			e.printStackTrace();
+		}
+		generator = g;
+	}
+
+	/**
+	 * Evicts this session if it is not in use and has not been used since
+	 * a given time.
+	 * 
+	 * @param time
+	 *            The time.
+	 * @return True if the session was evicted.
+	 */
+	synchronized boolean evictIfIdle(long time) {
+		if (users > 0 || lastUsed > time) {
+			return false;
+		}
+		evicted = true;
+		try {
+			if (lease != null) {
+				lease.cancel();
+			}
+		} catch (RemoteException e) {
+		}
+		return true;
+	}
+
+	/**
+	 * Renews the lease of the listener.
+	 */
+	synchronized void renew() {
+		try {
+			if (lease != null) {
+				lease.renew();
+			}
+		} catch (RemoteException e) {
+		}
+	}
+}
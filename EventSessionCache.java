@@ -0,0 +1,142 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.ds.RemoteEventListener;
+
+/**
+ * Class EventSessionCache keeps one event session for every customer listener
+ * that has packages at a GPS office. All the packages of a customer share the
+ * session's remote event generator instead of creating one each. A session
+ * that is in use has its listener lease renewed; a session that has not been
+ * used for the idle time is evicted and its lease is cancelled.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class EventSessionCache {
+
+	/**
+	 * Time in milliseconds after which an unused session is evicted.
+	 */
+	private final long idleTime;
+	/**
+	 * A map from a customer listener to its session.
+	 */
+	private final ConcurrentMap<RemoteEventListener<GPSOfficeEvent>, EventSession> sessions = new ConcurrentHashMap<RemoteEventListener<GPSOfficeEvent>, EventSession>();
+	/**
+	 * A flag to indicate if the sessions report the events to their listeners
+	 * directly.
+	 */
+	private final boolean direct;
+	/**
+	 * The clock that measures the idle time.
+	 */
+	private final TimeSource time;
+
+	/**
+	 * Constructs a new EventSessionCache object that measures the idle time
+	 * on the wall clock.
+	 * 
+	 * @param idleTime
+	 *            Time in milliseconds after which an unused session is
+	 *            evicted.
+	 * @param scheduler
+	 *            A timer that checks the sessions every half idle time.
+	 */
+	public EventSessionCache(long idleTime, ScheduledExecutorService scheduler) {
+		this(idleTime, scheduler, TimeSource.SYSTEM, false);
+	}
+
+	/**
+	 * Constructs a new EventSessionCache object.
+	 * 
+	 * @param idleTime
+	 *            Time in milliseconds after which an unused session is
+	 *            evicted.
+	 * @param scheduler
+	 *            A timer that checks the sessions every half idle time.
+	 * @param time
+	 *            The clock that measures the idle time, which should keep
+	 *            the same time as the timer.
+	 * @param direct
+	 *            True if the sessions report the events to listeners in the
+	 *            same JVM on the calling thread, without remote event
+	 *            generators.
+	 */
+	public EventSessionCache(long idleTime,
+			ScheduledExecutorService scheduler, TimeSource time,
+			boolean direct) {
+		this.idleTime = idleTime;
+		this.direct = direct;
+		this.time = time;
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, idleTime / 2, idleTime / 2, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the session of a customer listener, creating it if there is
+	 * none. The session is in use until it is released. Only the session that
+	 * ends up in the cache adds the listener to a remote event generator.
+	 * 
+	 * @param listener
+	 *            The customer listener.
+	 * @return The session.
+	 */
+	public EventSession acquire(RemoteEventListener<GPSOfficeEvent> listener) {
+		while (true) {
+			EventSession session = sessions.get(listener);
+			if (session == null) {
+				EventSession newSession = new EventSession(listener,
+						direct, this);
+				session = sessions.putIfAbsent(listener, newSession);
+				if (session == null) {
+					session = newSession;
+				}
+			}
+			if (session.acquire()) {
+				return session;
+			}
+			// The session was evicted just now.
+			sessions.remove(listener, session);
+		}
+	}
+
+	/**
+	 * Returns the number of sessions.
+	 * 
+	 * @return the number of sessions.
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Returns the current time of the clock that measures the idle time.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	long now() {
+		return time.now();
+	}
+
+	/**
+	 * Renews the leases of the sessions that are in use and evicts the ones
+	 * that have been idle for too long.
+	 */
+	private void sweep() {
+		long now = now();
+		for (EventSession session : sessions.values()) {
+			if (session.evictIfIdle(now - idleTime)) {
+				sessions.remove(session.getListener(), session);
+			} else {
+				session.renew();
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class ExecutionModeComparison measures how many packages one GPS office can
+ * hold in flight with the thread pool chosen by the "gps.threads" system
+ * property. Every package is a task that blocks, the way the hand-off of a
+ * package to the next office blocks on its remote call. All the tasks are
+ * submitted at once and held until the number of running tasks stops growing;
+ * then the peak number of packages in flight, the number of threads and the
+ * memory used are printed.
+ * 
+ * Usage: java -Dgps.threads=<"mode"> ExecutionModeComparison <"packages">
+ * where: "mode" : platform or virtual. "packages" : number of packages in
+ * flight.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class ExecutionModeComparison {
+
+	/**
+	 * Time in milliseconds without a new running task after which the number
+	 * of running tasks is taken as the peak.
+	 */
+	private static final long SETTLE_TIME = 2000;
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 *            command line arguments.
+	 * @throws Exception
+	 *             Thrown if the measurement is interrupted.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.out.println("Usage: java -Dgps.threads=<mode> "
+					+ "ExecutionModeComparison <packages>");
+			System.exit(0);
+		}
+		int packages;
+		try {
+			packages = Integer.parseInt(args[0]);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException(
+					"ExecutionModeComparison: Invalid <packages>: " + args[0]);
+		}
+
+		final AtomicInteger inFlight = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = GPSExecutors.newExecutor();
+		long baseline = usedMemory();
+		long start = System.nanoTime();
+		int submitted = 0;
+		try {
+			for (; submitted < packages; ++submitted) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						inFlight.incrementAndGet();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+						}
+					}
+				});
+			}
+		} catch (Throwable t) {
+			System.out.println("Submission failed after " + submitted
+					+ " packages: " + t);
+		}
+
+		// Wait until no more tasks start running.
+		int peak = -1;
+		while (inFlight.get() != peak) {
+			peak = inFlight.get();
+			Thread.sleep(SETTLE_TIME);
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		long memory = usedMemory() - baseline;
+		long rss = residentMemory();
+
+		System.out.println("Mode: "
+				+ (GPSExecutors.isVirtual() ? "virtual" : "platform"));
+		System.out.println("Packages in flight: " + peak + " of " + packages);
+		System.out.println("Live threads: "
+				+ ManagementFactory.getThreadMXBean().getThreadCount());
+		System.out.println("Heap used by the packages: " + memory / 1024
+				+ " KB (" + (peak == 0 ? 0 : memory / peak) + " bytes each)");
+		if (rss >= 0) {
+			System.out.println("Resident memory: " + rss / 1024 + " KB");
+		}
+		System.out.println("Time to reach the peak: " + elapsed
+				+ " ms (including " + SETTLE_TIME + " ms to settle)");
+
+		release.countDown();
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		System.exit(0);
+	}
+
+	/**
+	 * Returns the heap memory in use after a garbage collection.
+	 */
+	private static long usedMemory() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Returns the resident memory of this process, which includes the thread
+	 * stacks, or -1 if it is not known.
+	 */
+	private static long residentMemory() {
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(
+					"/proc/self/status"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.startsWith("VmRSS:")) {
+						String kb = line.replaceAll("[^0-9]", "");
+						return Long.parseLong(kb) * 1024;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,589 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class GPSBenchmark measures the hot paths of the GPS offices: comparing
+ * GPSOfficeInfo objects, the distance calculation, the choice of the
+ * deliverer of a package, the neighbor search at 10, 1000 and 10000 offices
+ * and the serialization of receipts and events. Every benchmark is warmed up
+ * and then run for a number of timed iterations; the mean time of one
+ * operation and its spread over the iterations are printed.
+ * 
+ * The neighbor search is measured the way addNeighbors does it, against a
+ * stand-in for the registry server that hands out the descriptors from
+ * memory, so only the work of this JVM is timed. The same choice through the
+ * spatial index of the GPSDirectory is measured next to it, along with the
+ * search for the closest offices that the directory made before, and with
+ * the sort of all the known offices that chose the neighbors before the
+ * NeighborSelector. The deliverer choice is measured both through the
+ * neighbor table and through the sort that forwardPackage used before the
+ * table was precomputed.
+ * 
+ * The baseline of every benchmark is kept in GPSBenchmark.baseline; a change
+ * to a hot path is compared by running this class before and after it on the
+ * same machine.
+ * 
+ * Usage: java [-Dgps.bench.warmup=<"n">] [-Dgps.bench.iterations=<"n">]
+ * [-Dgps.bench.time=<"ms">] GPSBenchmark [<"filter">] where: "warmup" :
+ * number of warmup iterations (default 5). "iterations" : number of timed
+ * iterations (default 5). "time" : length of an iteration in milliseconds
+ * (default 500). "filter" : runs only the benchmarks whose name contains it.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class GPSBenchmark {
+
+	/**
+	 * Number of warmup iterations.
+	 */
+	private static final int WARMUP = Integer.getInteger("gps.bench.warmup",
+			5);
+	/**
+	 * Number of timed iterations.
+	 */
+	private static final int ITERATIONS = Integer.getInteger(
+			"gps.bench.iterations", 5);
+	/**
+	 * Length of an iteration in milliseconds.
+	 */
+	private static final long ITERATION_TIME = Long.getLong("gps.bench.time",
+			500);
+	/**
+	 * Number of distinct inputs a benchmark cycles through, a power of 2.
+	 */
+	private static final int INPUTS = 1024;
+	/**
+	 * Number of neighbors searched for.
+	 */
+	private static final int NEIGHBOR_COUNT = 3;
+	/**
+	 * Chooses the Delaunay neighbors of an office.
+	 */
+	private static final NeighborSelector DELAUNAY = NeighborSelector
+			.delaunay();
+	/**
+	 * Average area of the plane per office, the area of a grid cell of the
+	 * GPSDirectory.
+	 */
+	private static final double AREA_PER_OFFICE = 100;
+
+	/**
+	 * Receives the results of the benchmarks so that the work is not removed
+	 * by the compiler.
+	 */
+	static volatile long sink;
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 *            command line arguments.
+	 * @throws IOException
+	 *             Thrown if an object cannot be serialized.
+	 */
+	public static void main(String[] args) throws IOException {
+		String filter = args.length > 0 ? args[0] : "";
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(compareTo());
+		benchmarks.add(legacyNeighbors(1000));
+		benchmarks.add(getDistance());
+		benchmarks.add(nextHop());
+		benchmarks.add(legacyDeliverer());
+		for (int n : new int[] { 10, 1000, 10000 }) {
+			benchmarks.add(addNeighbors(n));
+			benchmarks.add(directoryNearest(n));
+			benchmarks.add(directoryDelaunay(n));
+		}
+		Receipt receipt = new Receipt(new TrackNumberGenerator(0).next(),
+				12.5, 42);
+		GPSOfficeEvent event = new GPSOfficeEvent(receipt, "Rochester", false,
+				false, true);
+		List<GPSOfficeEvent> events = new ArrayList<GPSOfficeEvent>();
+		for (int i = 0; i < 100; ++i) {
+			events.add(event);
+		}
+		benchmarks.add(serialize("serialize Receipt", receipt));
+		benchmarks.add(serialize("serialize GPSOfficeEvent", event));
+		benchmarks.add(deserialize("deserialize GPSOfficeEvent", event));
+		benchmarks.add(serialize("serialize GPSOfficeEventBatch 100",
+				new GPSOfficeEventBatch(events)));
+
+		System.out.println(String.format("%-36s %14s %10s", "Benchmark",
+				"ns/op", "+-"));
+		for (Benchmark b : benchmarks) {
+			if (b.name.contains(filter)) {
+				measure(b);
+			}
+		}
+	}
+
+	/**
+	 * Warms up a benchmark, times it and prints the result.
+	 */
+	private static void measure(Benchmark b) {
+		// Grow the batch until one batch takes about a millisecond, so that
+		// reading the clock is a small part of the time.
+		int batch = 1;
+		while (time(b, batch) < 1000000 && batch < (1 << 30)) {
+			batch *= 2;
+		}
+		for (int i = 0; i < WARMUP; ++i) {
+			iteration(b, batch);
+		}
+		double[] results = new double[ITERATIONS];
+		double sum = 0;
+		for (int i = 0; i < ITERATIONS; ++i) {
+			results[i] = iteration(b, batch);
+			sum += results[i];
+		}
+		double mean = sum / ITERATIONS;
+		double squares = 0;
+		for (double r : results) {
+			squares += (r - mean) * (r - mean);
+		}
+		double deviation = Math.sqrt(squares / Math.max(ITERATIONS - 1, 1));
+		System.out.println(String.format("%-36s %14.1f %10.1f", b.name, mean,
+				deviation));
+	}
+
+	/**
+	 * Runs a benchmark for one iteration and returns the time of one
+	 * operation in nanoseconds.
+	 */
+	private static double iteration(Benchmark b, int batch) {
+		long end = System.nanoTime() + ITERATION_TIME * 1000000;
+		long ops = 0, elapsed = 0;
+		while (true) {
+			elapsed += time(b, batch);
+			ops += batch;
+			if (System.nanoTime() >= end) {
+				return (double) elapsed / ops;
+			}
+		}
+	}
+
+	/**
+	 * Runs a batch of operations of a benchmark and returns the time taken in
+	 * nanoseconds.
+	 */
+	private static long time(Benchmark b, int batch) {
+		long start = System.nanoTime();
+		sink += b.run(batch);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Compares two GPSOfficeInfo objects by distance.
+	 */
+	private static Benchmark compareTo() {
+		final GPSOffice.GPSOfficeInfo[] infos = infos(INPUTS, new Random(1));
+		return new Benchmark("GPSOfficeInfo.compareTo") {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					r += infos[i & (INPUTS - 1)].compareTo(infos[(i + 1)
+							& (INPUTS - 1)]);
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Sorts GPSOfficeInfo objects by distance and keeps the closest, as the
+	 * neighbors were chosen before the NeighborSelector.
+	 */
+	private static Benchmark legacyNeighbors(int n) {
+		final List<GPSOffice.GPSOfficeInfo> infos = Arrays.asList(infos(n,
+				new Random(2)));
+		return new Benchmark("neighbors legacy sort " + n) {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					r += legacyClosest(infos, NEIGHBOR_COUNT).size();
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Sorts GPS offices according to their distances from an office and
+	 * returns the closest ones, the way the neighbors were chosen before the
+	 * NeighborSelector. It is kept only for the comparison.
+	 * 
+	 * @param offices
+	 *            the GPS offices.
+	 * @param count
+	 *            the number of GPS offices to return.
+	 * @return at most count GPS offices, closest first.
+	 */
+	private static List<GPSOffice.GPSOfficeInfo> legacyClosest(
+			List<GPSOffice.GPSOfficeInfo> offices, int count) {
+		List<GPSOffice.GPSOfficeInfo> closest = new ArrayList<GPSOffice.GPSOfficeInfo>(
+				offices);
+		Collections.sort(closest);
+		if (closest.size() > count) {
+			closest = new ArrayList<GPSOffice.GPSOfficeInfo>(closest.subList(
+					0, count));
+		}
+		return closest;
+	}
+
+	/**
+	 * Calculates the distance between two points.
+	 */
+	private static Benchmark getDistance() {
+		final double[] xs = coordinates(INPUTS, 1000, new Random(3));
+		final double[] ys = coordinates(INPUTS, 1000, new Random(4));
+		return new Benchmark("getDistance") {
+			@Override
+			long run(int ops) {
+				double r = 0;
+				for (int i = 0; i < ops; ++i) {
+					int a = i & (INPUTS - 1), b = (i + 7) & (INPUTS - 1);
+					r += GPSOffice.distance(xs[a], ys[a], xs[b], ys[b]);
+				}
+				return (long) r;
+			}
+		};
+	}
+
+	/**
+	 * Chooses the deliverer of a package through the neighbor table.
+	 */
+	private static Benchmark nextHop() {
+		final Deliverers d = new Deliverers(new Random(5));
+		final GPSOffice.NeighborTable table = new GPSOffice.NeighborTable(1,
+				d.self, d.neighbors);
+		return new Benchmark("deliverer nextHop") {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					int j = i & (INPUTS - 1);
+					r += table.nextHop(d.destx[j], d.desty[j]).name.length();
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Chooses the deliverer of a package by sorting this office and its
+	 * neighbors by their distance from the destination, as forwardPackage did
+	 * before the neighbor table.
+	 */
+	private static Benchmark legacyDeliverer() {
+		final Deliverers d = new Deliverers(new Random(5));
+		return new Benchmark("deliverer legacy sort") {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					int j = i & (INPUTS - 1);
+					final double destx = d.destx[j], desty = d.desty[j];
+					List<GPSOffice.GPSOfficeInfo> deliverers = new ArrayList<GPSOffice.GPSOfficeInfo>();
+					deliverers.addAll(d.neighbors);
+					deliverers.add(d.self);
+					Collections.sort(deliverers,
+							new Comparator<GPSOffice.GPSOfficeInfo>() {
+								@Override
+								public int compare(GPSOffice.GPSOfficeInfo o1,
+										GPSOffice.GPSOfficeInfo o2) {
+									double d1 = GPSOffice.distance(o1.xpos,
+											o1.ypos, destx, desty);
+									double d2 = GPSOffice.distance(o2.xpos,
+											o2.ypos, destx, desty);
+									return ((d1 - d2) == 0) ? -1
+											: ((d1 - d2) > 0.0) ? 1 : -1;
+								}
+							});
+					r += deliverers.get(0).name.length();
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Finds the neighbors of an office the way addNeighbors does: every
+	 * office bound to the registry stand-in is looked up, its distance is
+	 * calculated and the Delaunay neighbors are chosen among them.
+	 */
+	private static Benchmark addNeighbors(final int n) {
+		final Map<String, GPSOfficeDescriptor> registry = registry(n,
+				new Random(6));
+		final List<String> names = new ArrayList<String>(registry.keySet());
+		return new Benchmark("addNeighbors " + n) {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					GPSOfficeDescriptor self = registry.get(names.get(i % n));
+					Map<String, GPSOffice.GPSOfficeInfo> allOffices = new ConcurrentHashMap<String, GPSOffice.GPSOfficeInfo>();
+					for (String office : names) {
+						if (office.equals(self.getName())) {
+							continue;
+						}
+						GPSOfficeDescriptor d = registry.get(office);
+						allOffices.put(office, new GPSOffice.GPSOfficeInfo(
+								GPSOffice.distance(self.getX(), self.getY(),
+										d.getX(), d.getY()), null, d.getName(),
+								d.getX(), d.getY()));
+					}
+					List<GPSOfficeDescriptor> offices = new ArrayList<GPSOfficeDescriptor>();
+					for (GPSOffice.GPSOfficeInfo info : allOffices.values()) {
+						offices.add(new GPSOfficeDescriptor(info.name,
+								info.xpos, info.ypos));
+					}
+					r += DELAUNAY.select(self,
+							NeighborSelector.candidates(offices)).neighbors
+							.size();
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Finds the neighbors of an office through the spatial index of the
+	 * GPSDirectory.
+	 */
+	private static Benchmark directoryNearest(final int n) {
+		Map<String, GPSOfficeDescriptor> registry = registry(n, new Random(6));
+		final List<GPSOfficeDescriptor> offices = new ArrayList<GPSOfficeDescriptor>(
+				registry.values());
+		final SpatialGrid<GPSOfficeDescriptor> grid = new SpatialGrid<GPSOfficeDescriptor>(
+				Math.sqrt(AREA_PER_OFFICE));
+		for (GPSOfficeDescriptor d : offices) {
+			grid.put(d.getName(), d.getX(), d.getY(), d);
+		}
+		return new Benchmark("directory nearest " + n) {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					GPSOfficeDescriptor self = offices.get(i % n);
+					r += grid.nearest(self.getX(), self.getY(),
+							NEIGHBOR_COUNT, self.getName()).size();
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Chooses the Delaunay neighbors of an office through the spatial index
+	 * of the GPSDirectory.
+	 */
+	private static Benchmark directoryDelaunay(final int n) {
+		Map<String, GPSOfficeDescriptor> registry = registry(n, new Random(6));
+		final List<GPSOfficeDescriptor> offices = new ArrayList<GPSOfficeDescriptor>(
+				registry.values());
+		final SpatialGrid<GPSOfficeDescriptor> grid = new SpatialGrid<GPSOfficeDescriptor>(
+				Math.sqrt(AREA_PER_OFFICE));
+		final double[] bounds = { Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+		for (GPSOfficeDescriptor d : offices) {
+			grid.put(d.getName(), d.getX(), d.getY(), d);
+			bounds[0] = Math.min(bounds[0], d.getX());
+			bounds[1] = Math.min(bounds[1], d.getY());
+			bounds[2] = Math.max(bounds[2], d.getX());
+			bounds[3] = Math.max(bounds[3], d.getY());
+		}
+		final double[] clip = NeighborSelector.clipBounds(bounds, n);
+		return new Benchmark("directory delaunay " + n) {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					GPSOfficeDescriptor self = offices.get(i % n);
+					r += DELAUNAY.select(self,
+							NeighborSelector.candidates(grid, self.getName(),
+									clip)).neighbors.size();
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Serializes an object into a new object output stream, as a remote call
+	 * does.
+	 */
+	private static Benchmark serialize(String name, final Object o)
+			throws IOException {
+		System.out.println(name + ": " + bytes(o).length + " bytes");
+		return new Benchmark(name) {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					r += bytes(o).length;
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Deserializes an object from a new object input stream, as a remote call
+	 * does.
+	 */
+	private static Benchmark deserialize(String name, Object o)
+			throws IOException {
+		final byte[] data = bytes(o);
+		return new Benchmark(name) {
+			@Override
+			long run(int ops) {
+				long r = 0;
+				for (int i = 0; i < ops; ++i) {
+					try {
+						r += new ObjectInputStream(new ByteArrayInputStream(
+								data)).readObject().hashCode();
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Returns the serialized form of an object.
+	 */
+	private static byte[] bytes(Object o) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(o);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns GPSOfficeInfo objects at random distances.
+	 */
+	private static GPSOffice.GPSOfficeInfo[] infos(int n, Random random) {
+		GPSOffice.GPSOfficeInfo[] infos = new GPSOffice.GPSOfficeInfo[n];
+		for (int i = 0; i < n; ++i) {
+			double x = random.nextDouble() * 1000, y = random.nextDouble() * 1000;
+			infos[i] = new GPSOffice.GPSOfficeInfo(GPSOffice.distance(0, 0, x,
+					y), null, "office" + i, x, y);
+		}
+		return infos;
+	}
+
+	/**
+	 * Returns random coordinates between 0 and a limit.
+	 */
+	private static double[] coordinates(int n, double limit, Random random) {
+		double[] c = new double[n];
+		for (int i = 0; i < n; ++i) {
+			c[i] = random.nextDouble() * limit;
+		}
+		return c;
+	}
+
+	/**
+	 * Returns a stand-in for a registry server with offices spread at random
+	 * over a square, one per AREA_PER_OFFICE on average.
+	 */
+	private static Map<String, GPSOfficeDescriptor> registry(int n,
+			Random random) {
+		double side = Math.sqrt(n * AREA_PER_OFFICE);
+		Map<String, GPSOfficeDescriptor> registry = new LinkedHashMap<String, GPSOfficeDescriptor>();
+		for (int i = 0; i < n; ++i) {
+			String name = "office" + i;
+			registry.put(name, new GPSOfficeDescriptor(name, random.nextDouble()
+					* side, random.nextDouble() * side));
+		}
+		return registry;
+	}
+
+	/**
+	 * Class Benchmark is one operation to measure.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static abstract class Benchmark {
+		/**
+		 * Name of the benchmark.
+		 */
+		public final String name;
+
+		/**
+		 * Construct a new Benchmark object.
+		 */
+		public Benchmark(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Runs a number of operations and returns a value computed from their
+		 * results.
+		 */
+		abstract long run(int ops);
+	}
+
+	/**
+	 * Class Deliverers is an office with three neighbors and destinations
+	 * around them, the input of the choice of a deliverer.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Deliverers {
+		/**
+		 * This office.
+		 */
+		public final GPSOffice.GPSOfficeInfo self;
+		/**
+		 * The neighbors, closest first.
+		 */
+		public final List<GPSOffice.GPSOfficeInfo> neighbors;
+		/**
+		 * Coordinates of the destinations.
+		 */
+		public final double[] destx, desty;
+
+		/**
+		 * Construct a new Deliverers object.
+		 */
+		public Deliverers(Random random) {
+			self = new GPSOffice.GPSOfficeInfo(0, null, "self", 50, 50);
+			List<GPSOffice.GPSOfficeInfo> n = new ArrayList<GPSOffice.GPSOfficeInfo>();
+			for (int i = 0; i < NEIGHBOR_COUNT; ++i) {
+				double x = random.nextDouble() * 100, y = random.nextDouble() * 100;
+				n.add(new GPSOffice.GPSOfficeInfo(GPSOffice.distance(50, 50, x,
+						y), null, "neighbor" + i, x, y));
+			}
+			Collections.sort(n);
+			neighbors = n;
+			destx = coordinates(INPUTS, 100, random);
+			desty = coordinates(INPUTS, 100, random);
+		}
+	}
+}
@@ -0,0 +1,716 @@
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import edu.rit.ds.registry.AlreadyBoundException;
+import edu.rit.ds.registry.NotBoundException;
+import edu.rit.ds.registry.RegistryEvent;
+import edu.rit.ds.registry.RegistryEventFilter;
+import edu.rit.ds.registry.RegistryEventListener;
+import edu.rit.ds.registry.RegistryProxy;
+
+/**
+ * 
+ * @author Chinmay Dani
+ * 
+ *         Class GPSDirectory represents Java RMI object for the GPS office
+ *         directory in the Geographic Package System. The directory keeps the
+ *         locations of all the GPS offices in a spatial grid, answers nearest
+ *         office queries and pushes a new neighbor set to every office whose
+ *         neighbors change when an office joins or leaves. The Voronoi cells
+ *         of the offices are all clipped to one rectangle, which is only
+ *         grown when the offices come close to its edge; the offices whose
+ *         cells reach it then choose their neighbors again, so that the
+ *         neighbors of any two offices agree. It also assigns
+ *         every office a node ID for its track numbers that no other office
+ *         holds, and a new directory first learns the node IDs of the
+ *         offices that are already running.
+ * 
+ *         The GPSDirectory object instance is run by the following command
+ *         line parameters using the Start class from edu.rit pacakage.
+ * 
+ *         Usage: java Start GPSDirectory <"host"> <"port"> [<"cellsize">]
+ *         where: "host" : name of the computer where the Registry Server is
+ *         running. "port" : port number to which the Registry Server is
+ *         listening. "cellsize" : side of a cell of the spatial grid.
+ * 
+ *         A GPSDirectory created with no arguments is not bound to a registry
+ *         server and can be used as a local stand-in.
+ * 
+ */
+public class GPSDirectory implements GPSDirectoryInterface {
+
+	/**
+	 * Name under which the directory is bound to the registry server.
+	 */
+	public static final String NAME = "GPSDirectory";
+	/**
+	 * Chooses the neighbors of the GPS offices.
+	 */
+	private static final NeighborSelector NEIGHBORS = NeighborSelector
+			.fromProperties();
+	/**
+	 * Default side of a cell of the spatial grid.
+	 */
+	private static final double DEFAULT_CELL_SIZE = 10;
+
+	/**
+	 * A spatial grid of the registered GPS offices.
+	 */
+	private SpatialGrid<OfficeState> offices;
+	/**
+	 * A map from the name of a GPS office to the names of the offices that
+	 * have it as a neighbor.
+	 */
+	private Map<String, Set<String>> neighborOf = new HashMap<String, Set<String>>();
+	/**
+	 * The reaches of the neighbor sets of the GPS offices, with the number of
+	 * offices that have each, so that the largest is known as offices come
+	 * and go.
+	 */
+	private TreeMap<Double, Integer> reaches = new TreeMap<Double, Integer>();
+	/**
+	 * A rectangle that holds every GPS office registered so far: the
+	 * smallest X, smallest Y, largest X and largest Y.
+	 */
+	private double[] bounds = { Double.POSITIVE_INFINITY,
+			Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+			Double.NEGATIVE_INFINITY };
+	/**
+	 * The rectangle the Voronoi cells of the GPS offices are clipped to, or
+	 * null before the first office registers.
+	 */
+	private double[] box;
+	/**
+	 * The room the rectangle left around the offices when it was last
+	 * grown.
+	 */
+	private double boxMargin;
+	/**
+	 * Version number of the neighbor graph, which increases whenever the
+	 * neighbors of an office change.
+	 */
+	private long topologyVersion = 0;
+	/**
+	 * The last snapshot of the neighbor graph, or null if none was taken.
+	 */
+	private Topology topology;
+	/**
+	 * A map from the name of a GPS office to its node ID.
+	 */
+	private Map<String, Integer> nodeIds = new HashMap<String, Integer>();
+	/**
+	 * The node IDs held by the GPS offices.
+	 */
+	private BitSet usedNodeIds = new BitSet();
+	/**
+	 * The released node IDs that are not free yet, with the time in
+	 * milliseconds they were released, oldest first.
+	 */
+	private Map<Integer, Long> releasedNodeIds = new LinkedHashMap<Integer, Long>();
+	/**
+	 * The node ID assigned next, if it is free. IDs are handed out in turn so
+	 * that a released ID is not reused soon.
+	 */
+	private int nextNodeId = 0;
+	/**
+	 * An object to create a thread pool that pushes the neighbor sets.
+	 */
+	private ExecutorService executor;
+	/**
+	 * A registry proxy reference, or null for a local stand-in.
+	 */
+	private RegistryProxy registry;
+	/**
+	 * A registry event listener object.
+	 */
+	private RegistryEventListener registryListener;
+
+	/**
+	 * Constructs a new GPSDirectory object that is not bound to a registry
+	 * server.
+	 */
+	public GPSDirectory() {
+		this(GPSExecutors.newExecutor());
+	}
+
+	/**
+	 * Constructs a new GPSDirectory object that is not bound to a registry
+	 * server and pushes the neighbor sets on the given executor.
+	 * 
+	 * @param executor
+	 *            The executor that pushes the neighbor sets.
+	 */
+	GPSDirectory(ExecutorService executor) {
+		offices = new SpatialGrid<OfficeState>(DEFAULT_CELL_SIZE);
+		this.executor = executor;
+	}
+
+	/**
+	 * Constructs a new GPSDirectory object and binds it to the registry
+	 * server.
+	 * 
+	 * @param args
+	 *            Command line arguments.
+	 * @throws IllegalArgumentException
+	 *             Thrown if there is a discrepancy in the command line
+	 *             arguments.
+	 * @throws IOException
+	 *             Thrown if an IO error or remote error occurs.
+	 */
+	public GPSDirectory(String[] args) throws IOException {
+		// Parse command line arguments.
+		if (args.length != 2 && args.length != 3) {
+			throw new IllegalArgumentException(
+					"Usage: java Start GPSDirectory <host> <port> [<cellsize>]");
+		}
+		String host = args[0];
+		int port;
+		try {
+			port = Integer.parseInt(args[1]);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("GPSDirectory: Invalid <port>: "
+					+ args[1]);
+		}
+		double cellSize = DEFAULT_CELL_SIZE;
+		if (args.length == 3) {
+			try {
+				cellSize = Double.parseDouble(args[2]);
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException(
+						"GPSDirectory: Invalid <cellsize>: " + args[2]);
+			}
+		}
+		offices = new SpatialGrid<OfficeState>(cellSize);
+		executor = GPSExecutors.newExecutor();
+
+		// Create a registry proxy and bind the directory to the registry
+		// server.
+		try {
+			registry = new RegistryProxy(host, port);
+			UnicastRemoteObject.exportObject(this, 0);
+			registry.bind(NAME, this);
+		} catch (AlreadyBoundException abe) {
+			try {
+				UnicastRemoteObject.unexportObject(this, true);
+			} catch (NoSuchObjectException nse) {
+			}
+			throw new IllegalArgumentException("GPSDirectory: " + NAME
+					+ " already exists");
+		} catch (RemoteException re) {
+			try {
+				UnicastRemoteObject.unexportObject(this, true);
+			} catch (NoSuchObjectException nse) {
+			}
+			throw new IllegalArgumentException(
+					"Cannot connect to the registry server at " + host + ":"
+							+ port);
+		}
+
+		// Remove the GPS offices that are unbound from the registry server.
+		registryListener = new RegistryEventListener() {
+			public void report(long seq, RegistryEvent event)
+					throws RemoteException {
+				unregister(event.objectName());
+			}
+		};
+		UnicastRemoteObject.exportObject(registryListener, 0);
+		registry.addEventListener(registryListener, new RegistryEventFilter()
+				.reportType("GPSOfficeInterface").reportUnbound());
+
+		// Keep the node IDs of the GPS offices that are already running,
+		// which an earlier directory assigned.
+		for (String name : registry.list("GPSOfficeInterface")) {
+			try {
+				GPSOfficeInterface office = (GPSOfficeInterface) registry
+						.lookup(name);
+				holdNodeId(name, office.getStatus().getNodeId());
+			} catch (NotBoundException e) {
+			} catch (RemoteException e) {
+			}
+		}
+	}
+
+	/**
+	 * Adds a GPS office to the directory and updates the neighbor sets of the
+	 * offices that now have it as a neighbor.
+	 * 
+	 * @param entry
+	 *            The descriptor and remote reference of the GPS office.
+	 * @param listener
+	 *            The listener that receives the neighbor set changes.
+	 * @return The current neighbor set of the GPS office.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public synchronized NeighborSet register(GPSOfficeEntry entry,
+			NeighborListener listener) throws RemoteException {
+		GPSOfficeDescriptor d = entry.getDescriptor();
+		remove(d.getName());
+		OfficeState state = new OfficeState(entry, listener);
+		offices.put(d.getName(), d.getX(), d.getY(), state);
+		bounds[0] = Math.min(bounds[0], d.getX());
+		bounds[1] = Math.min(bounds[1], d.getY());
+		bounds[2] = Math.max(bounds[2], d.getX());
+		bounds[3] = Math.max(bounds[3], d.getY());
+		boolean grown = updateBox();
+
+		if (NEIGHBORS.isSymmetric()) {
+			// Only the neighbors of the new office have it as a neighbor,
+			// unless the rectangle changed under the open cells.
+			update(state, false);
+			Set<OfficeState> affected = new HashSet<OfficeState>(
+					state.neighbors);
+			if (grown) {
+				for (OfficeState other : offices.values()) {
+					if (other.open && other != state) {
+						affected.add(other);
+					}
+				}
+			}
+			for (OfficeState other : affected) {
+				update(other, true);
+			}
+		} else {
+			// Only the offices that are farther from their own neighbors
+			// than from the new office can gain it as a neighbor.
+			double maxReach = reaches.isEmpty() ? 0 : reaches.lastKey();
+			List<OfficeState> affected;
+			if (Double.isInfinite(maxReach)) {
+				affected = offices.values();
+			} else {
+				affected = offices.within(d.getX(), d.getY(), maxReach);
+			}
+			for (OfficeState other : affected) {
+				if (other != state
+						&& other.reach > distance(other, d.getX(), d.getY())) {
+					update(other, true);
+				}
+			}
+			update(state, false);
+		}
+		return new NeighborSet(state.version, entries(state.neighbors));
+	}
+
+	/**
+	 * Grows the rectangle the Voronoi cells are clipped to when the offices
+	 * come within half its room of an edge, or shrinks its room when it is
+	 * more than four times what the offices now need. Keeping the rectangle
+	 * otherwise spares the open cells from being chosen again on every
+	 * registration.
+	 * 
+	 * @return True if the rectangle changed.
+	 */
+	private boolean updateBox() {
+		double[] clip = NeighborSelector.clipBounds(bounds, offices.size());
+		double margin = bounds[0] - clip[0];
+		if (box != null && margin >= boxMargin / 4
+				&& bounds[0] - box[0] >= boxMargin / 2
+				&& bounds[1] - box[1] >= boxMargin / 2
+				&& box[2] - bounds[2] >= boxMargin / 2
+				&& box[3] - bounds[3] >= boxMargin / 2) {
+			return false;
+		}
+		box = clip;
+		boxMargin = margin;
+		return true;
+	}
+
+	/**
+	 * Assigns a node ID to a GPS office. An office that already holds one
+	 * gets it again. A released node ID is not assigned again until the
+	 * track numbers issued with it are all older than the clock, that is
+	 * TrackNumberGenerator.MAX_LEAD milliseconds after it was released.
+	 * 
+	 * @param name
+	 *            Name of the GPS office.
+	 * @return the node ID.
+	 * @throws RemoteException
+	 *             Thrown if all the node IDs are in use.
+	 */
+	public synchronized int assignNodeId(String name) throws RemoteException {
+		Integer id = nodeIds.get(name);
+		if (id != null) {
+			return id;
+		}
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Integer, Long>> released = releasedNodeIds
+				.entrySet().iterator();
+		while (released.hasNext()) {
+			Map.Entry<Integer, Long> entry = released.next();
+			if (now - entry.getValue() <= TrackNumberGenerator.MAX_LEAD) {
+				break;
+			}
+			usedNodeIds.clear(entry.getKey());
+			released.remove();
+		}
+		int free = usedNodeIds.nextClearBit(nextNodeId);
+		if (free > TrackNumberGenerator.MAX_NODE_ID) {
+			free = usedNodeIds.nextClearBit(0);
+			if (free > TrackNumberGenerator.MAX_NODE_ID) {
+				throw new RemoteException("GPSDirectory: No free node IDs");
+			}
+		}
+		usedNodeIds.set(free);
+		nodeIds.put(name, free);
+		nextNodeId = free + 1;
+		return free;
+	}
+
+	/**
+	 * Removes a GPS office from the directory, updates the neighbor sets of
+	 * the offices that had it as a neighbor and releases its node ID.
+	 * 
+	 * @param name
+	 *            Name of the GPS office.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public synchronized void unregister(String name) throws RemoteException {
+		remove(name);
+		Integer id = nodeIds.remove(name);
+		if (id != null) {
+			releasedNodeIds.put(id, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Records the node ID of a running GPS office that the directory did not
+	 * assign.
+	 * 
+	 * @param name
+	 *            Name of the GPS office.
+	 * @param id
+	 *            The node ID.
+	 */
+	private synchronized void holdNodeId(String name, int id) {
+		if (id >= 0 && id <= TrackNumberGenerator.MAX_NODE_ID
+				&& !nodeIds.containsKey(name)) {
+			nodeIds.put(name, id);
+			usedNodeIds.set(id);
+		}
+	}
+
+	/**
+	 * Removes a GPS office from the directory and updates the neighbor sets
+	 * of the offices that had it as a neighbor. The office keeps its node ID,
+	 * since it may still be running.
+	 * 
+	 * @param name
+	 *            Name of the GPS office.
+	 */
+	private synchronized void remove(String name) {
+		OfficeState state = offices.remove(name);
+		if (state == null) {
+			return;
+		}
+		++topologyVersion;
+		removeReach(state.reach);
+		for (OfficeState neighbor : state.neighbors) {
+			Set<String> names = neighborOf.get(neighbor.name());
+			if (names != null) {
+				names.remove(name);
+			}
+		}
+		Set<String> names = neighborOf.remove(name);
+		if (names != null) {
+			for (String other : names) {
+				OfficeState otherState = offices.get(other);
+				if (otherState != null) {
+					update(otherState, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the GPS offices closest to a location.
+	 * 
+	 * @param x
+	 *            X coordinate of the location
+	 * @param y
+	 *            Y coordinate of the location
+	 * @param k
+	 *            the number of GPS offices to return
+	 * @return At most k GPS offices, closest first.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public synchronized List<GPSOfficeEntry> nearest(double x, double y, int k)
+			throws RemoteException {
+		return entries(offices.nearest(x, y, k, null));
+	}
+
+	/**
+	 * Returns a snapshot of the neighbor graph of the GPS offices, unless the
+	 * caller already has the current one.
+	 * 
+	 * @param knownVersion
+	 *            Version number of the snapshot the caller has, or -1 if it
+	 *            has none.
+	 * @return the current snapshot, or null if its version is knownVersion.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public synchronized Topology getTopology(long knownVersion)
+			throws RemoteException {
+		if (knownVersion == topologyVersion) {
+			return null;
+		}
+		if (topology == null || topology.getVersion() != topologyVersion) {
+			List<OfficeState> states = offices.values();
+			List<GPSOfficeDescriptor> descriptors = new ArrayList<GPSOfficeDescriptor>(
+					states.size());
+			List<List<String>> neighbors = new ArrayList<List<String>>(
+					states.size());
+			for (OfficeState state : states) {
+				descriptors.add(state.entry.getDescriptor());
+				List<String> names = new ArrayList<String>(
+						state.neighbors.size());
+				for (OfficeState neighbor : state.neighbors) {
+					names.add(neighbor.name());
+				}
+				neighbors.add(names);
+			}
+			topology = new Topology(topologyVersion, descriptors, neighbors);
+		}
+		return topology;
+	}
+
+	/**
+	 * Recomputes the neighbors of a GPS office and pushes them to the office
+	 * if they have changed.
+	 * 
+	 * @param state
+	 *            The state of the GPS office.
+	 * @param push
+	 *            True if a changed neighbor set is pushed to the office.
+	 */
+	private void update(OfficeState state, boolean push) {
+		GPSOfficeDescriptor d = state.entry.getDescriptor();
+		NeighborSelector.Selection selection = NEIGHBORS.select(d,
+				new OfficeCandidates(d.getName()));
+		removeReach(state.reach);
+		state.reach = selection.reach;
+		addReach(state.reach);
+		state.open = selection.open;
+		List<OfficeState> neighbors = new ArrayList<OfficeState>(
+				selection.neighbors.size());
+		for (GPSOfficeDescriptor neighbor : selection.neighbors) {
+			neighbors.add(offices.get(neighbor.getName()));
+		}
+		if (neighbors.equals(state.neighbors)) {
+			return;
+		}
+		for (OfficeState old : state.neighbors) {
+			Set<String> names = neighborOf.get(old.name());
+			if (names != null) {
+				names.remove(d.getName());
+			}
+		}
+		for (OfficeState neighbor : neighbors) {
+			Set<String> names = neighborOf.get(neighbor.name());
+			if (names == null) {
+				names = new HashSet<String>();
+				neighborOf.put(neighbor.name(), names);
+			}
+			names.add(d.getName());
+		}
+		state.neighbors = neighbors;
+		++state.version;
+		++topologyVersion;
+		if (push) {
+			push(state, new NeighborSet(state.version, entries(neighbors)));
+		}
+	}
+
+	/**
+	 * Sends a neighbor set to a GPS office on the thread pool. An office that
+	 * cannot be reached is removed from the directory.
+	 * 
+	 * @param state
+	 *            The state of the GPS office.
+	 * @param neighbors
+	 *            The neighbor set.
+	 */
+	private void push(final OfficeState state, final NeighborSet neighbors) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					state.listener.neighborsChanged(neighbors);
+				} catch (RemoteException e) {
+					remove(state.name());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Counts a neighbor set with the given reach.
+	 */
+	private void addReach(double reach) {
+		Integer count = reaches.get(reach);
+		reaches.put(reach, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Forgets a neighbor set with the given reach.
+	 */
+	private void removeReach(double reach) {
+		Integer count = reaches.get(reach);
+		if (count == null) {
+			return;
+		} else if (count == 1) {
+			reaches.remove(reach);
+		} else {
+			reaches.put(reach, count - 1);
+		}
+	}
+
+	/**
+	 * Returns the distance between a GPS office and a location.
+	 */
+	private static double distance(OfficeState state, double x, double y) {
+		GPSOfficeDescriptor d = state.entry.getDescriptor();
+		return Math.sqrt((x - d.getX()) * (x - d.getX()) + (y - d.getY())
+				* (y - d.getY()));
+	}
+
+	/**
+	 * Returns the directory entries of a list of GPS offices.
+	 */
+	private static List<GPSOfficeEntry> entries(List<OfficeState> states) {
+		List<GPSOfficeEntry> result = new ArrayList<GPSOfficeEntry>(
+				states.size());
+		for (OfficeState state : states) {
+			result.add(state.entry);
+		}
+		return result;
+	}
+
+	/**
+	 * Class OfficeState holds what the directory knows about one GPS office:
+	 * its entry, its listener and its current neighbors.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class OfficeState {
+		/**
+		 * The descriptor and remote reference of the GPS office.
+		 */
+		public final GPSOfficeEntry entry;
+		/**
+		 * The listener that receives the neighbor set changes.
+		 */
+		public final NeighborListener listener;
+		/**
+		 * The current neighbors, closest first.
+		 */
+		public List<OfficeState> neighbors = new ArrayList<OfficeState>();
+		/**
+		 * The distance beyond which a new office cannot change the current
+		 * neighbors, or NaN before they are first chosen.
+		 */
+		public double reach = Double.NaN;
+		/**
+		 * True if the Voronoi cell of the office reaches the rectangle it is
+		 * clipped to.
+		 */
+		public boolean open;
+		/**
+		 * Version number of the current neighbor set.
+		 */
+		public long version;
+
+		/**
+		 * Construct a new OfficeState object.
+		 * 
+		 * @param e
+		 *            the descriptor and remote reference of the GPS office
+		 * @param l
+		 *            the listener that receives the neighbor set changes
+		 */
+		public OfficeState(GPSOfficeEntry e, NeighborListener l) {
+			entry = e;
+			listener = l;
+		}
+
+		/**
+		 * Returns the name of the GPS office.
+		 */
+		public String name() {
+			return entry.getDescriptor().getName();
+		}
+	}
+
+	/**
+	 * Class OfficeCandidates gives the neighbor selector the registered GPS
+	 * offices other than one.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private class OfficeCandidates implements NeighborSelector.Candidates {
+		/**
+		 * Name of the GPS office whose neighbors are chosen.
+		 */
+		private final String name;
+
+		/**
+		 * Construct a new OfficeCandidates object.
+		 */
+		public OfficeCandidates(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public int size() {
+			return offices.get(name) == null ? offices.size()
+					: offices.size() - 1;
+		}
+
+		@Override
+		public List<GPSOfficeDescriptor> nearest(double x, double y, int k) {
+			return descriptors(offices.nearest(x, y, k, name));
+		}
+
+		@Override
+		public List<GPSOfficeDescriptor> within(double x, double y,
+				double distance) {
+			return descriptors(offices.within(x, y, distance));
+		}
+
+		@Override
+		public double[] bounds() {
+			return box.clone();
+		}
+
+		/**
+		 * Returns the descriptors of a list of GPS offices.
+		 */
+		private List<GPSOfficeDescriptor> descriptors(List<OfficeState> states) {
+			List<GPSOfficeDescriptor> result = new ArrayList<GPSOfficeDescriptor>(
+					states.size());
+			for (OfficeState state : states) {
+				if (!state.name().equals(name)) {
+					result.add(state.entry.getDescriptor());
+				}
+			}
+			return result;
+		}
+	}
+}
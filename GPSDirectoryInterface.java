@@ -0,0 +1,84 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Interface GPSDirectoryInterface serves the Java RMI interface to the GPS
+ * office directory of the Geographical Package System. The directory keeps the
+ * locations of all the GPS offices in a spatial index and tells each office
+ * which offices are its neighbors.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public interface GPSDirectoryInterface extends Remote {
+
+	/**
+	 * Adds a GPS office to the directory. Whenever the neighbors of the office
+	 * change afterwards, the new neighbor set is pushed to the listener.
+	 * 
+	 * @param entry
+	 *            The descriptor and remote reference of the GPS office.
+	 * @param listener
+	 *            The listener that receives the neighbor set changes.
+	 * @return the current neighbor set of the GPS office.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public NeighborSet register(GPSOfficeEntry entry, NeighborListener listener)
+			throws RemoteException;
+
+	/**
+	 * Assigns a node ID to a GPS office, which the office puts in its track
+	 * numbers. No two GPS offices hold the same node ID at the same time; an
+	 * office keeps its node ID until it is removed from the directory.
+	 * 
+	 * @param name
+	 *            Name of the GPS office.
+	 * @return the node ID, from 0 to TrackNumberGenerator.MAX_NODE_ID.
+	 * @throws RemoteException
+	 *             Thrown if all the node IDs are in use or a remote error
+	 *             occurs.
+	 */
+	public int assignNodeId(String name) throws RemoteException;
+
+	/**
+	 * Removes a GPS office from the directory.
+	 * 
+	 * @param name
+	 *            Name of the GPS office.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public void unregister(String name) throws RemoteException;
+
+	/**
+	 * Returns the GPS offices closest to a location.
+	 * 
+	 * @param x
+	 *            X coordinate of the location
+	 * @param y
+	 *            Y coordinate of the location
+	 * @param k
+	 *            the number of GPS offices to return
+	 * @return at most k GPS offices, closest first.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public List<GPSOfficeEntry> nearest(double x, double y, int k)
+			throws RemoteException;
+
+	/**
+	 * Returns a snapshot of the neighbor graph of the GPS offices, unless the
+	 * caller already has the current one.
+	 * 
+	 * @param knownVersion
+	 *            Version number of the snapshot the caller has, or -1 if it
+	 *            has none.
+	 * @return the current snapshot, or null if its version is knownVersion.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public Topology getTopology(long knownVersion) throws RemoteException;
+
+}
@@ -0,0 +1,177 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class GPSExecutors creates the thread pools used by the programs of the
+ * Geographic Package System. The kind of threads they run on is chosen with
+ * the "gps.threads" system property:
+ * 
+ * "platform" (the default) : ordinary threads from a cached thread pool.
+ * "virtual" : a new virtual thread for every task. Virtual threads need Java
+ * 21 or later; on an older Java the platform threads are used instead.
+ * 
+ * For example: java -Dgps.threads=virtual Start GPSOffice localhost 2000 A 0 0
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public final class GPSExecutors {
+
+	/**
+	 * Name of the system property that selects the kind of threads.
+	 */
+	public static final String THREADS_PROPERTY = "gps.threads";
+	/**
+	 * True if the tasks run on virtual threads.
+	 */
+	private static final boolean VIRTUAL = initVirtual();
+	/**
+	 * Makes the thread that submits a task to a full thread pool wait until
+	 * there is room for it.
+	 */
+	private static final RejectedExecutionHandler WAIT = new RejectedExecutionHandler() {
+		@Override
+		public void rejectedExecution(Runnable task,
+				ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException(
+						"GPSExecutors: Thread pool is shut down");
+			}
+			try {
+				executor.getQueue().put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(
+						"GPSExecutors: Interrupted while the queue was full", e);
+			}
+		}
+	};
+
+	/**
+	 * Prevents construction.
+	 */
+	private GPSExecutors() {
+	}
+
+	/**
+	 * Tells whether the tasks run on virtual threads.
+	 * 
+	 * @return True for virtual threads, false for platform threads.
+	 */
+	public static boolean isVirtual() {
+		return VIRTUAL;
+	}
+
+	/**
+	 * Creates a thread pool that runs every task as soon as it is submitted.
+	 * 
+	 * @return A new thread pool.
+	 */
+	public static ExecutorService newExecutor() {
+		if (VIRTUAL) {
+			try {
+				Method m = Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) m.invoke(null);
+			} catch (Exception e) {
+				throw new IllegalStateException(
+						"GPSExecutors: Cannot create virtual threads", e);
+			}
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Creates a thread pool that runs at most a given number of tasks at a
+	 * time; the other tasks wait in the order they are submitted.
+	 * 
+	 * @param threads
+	 *            Largest number of tasks that run at a time.
+	 * @return A new thread pool.
+	 */
+	public static ExecutorService newFixedExecutor(int threads) {
+		if (VIRTUAL) {
+			return Executors.newFixedThreadPool(threads,
+					virtualThreadFactory());
+		}
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Creates a thread pool that runs the tasks one at a time in the order
+	 * they are submitted. At most a given number of tasks wait; a thread that
+	 * submits a task while the queue is full waits until there is room, so
+	 * that a backlog slows down the submitters instead of filling the memory.
+	 * 
+	 * @param capacity
+	 *            Largest number of tasks that wait.
+	 * @return A new thread pool.
+	 */
+	public static ExecutorService newSerialExecutor(int capacity) {
+		ThreadFactory factory = VIRTUAL ? virtualThreadFactory() : Executors
+				.defaultThreadFactory();
+		return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity), factory, WAIT);
+	}
+
+	/**
+	 * Creates a timer for delayed tasks. The timer always runs on one
+	 * platform thread; a delayed task should only hand the real work to a
+	 * thread pool.
+	 * 
+	 * @return A new timer.
+	 */
+	public static ScheduledExecutorService newScheduler() {
+		return Executors.newSingleThreadScheduledExecutor();
+	}
+
+	/**
+	 * Returns a factory of virtual threads.
+	 * 
+	 * @return The thread factory.
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (Exception e) {
+			throw new IllegalStateException(
+					"GPSExecutors: Cannot create virtual threads", e);
+		}
+	}
+
+	/**
+	 * Reads the system property and checks that virtual threads are
+	 * available if they are asked for.
+	 * 
+	 * @return True if the tasks run on virtual threads.
+	 */
+	private static boolean initVirtual() {
+		String threads = System.getProperty(THREADS_PROPERTY, "platform");
+		if (threads.equals("platform")) {
+			return false;
+		}
+		if (!threads.equals("virtual")) {
+			throw new IllegalArgumentException("GPSExecutors: Invalid "
+					+ THREADS_PROPERTY + ": " + threads);
+		}
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			System.out.println("Virtual threads are not available, "
+					+ "using platform threads instead.");
+			return false;
+		}
+	}
+}
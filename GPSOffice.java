@@ -3,16 +3,25 @@ import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.rit.ds.Lease;
 import edu.rit.ds.RemoteEventGenerator;
 import edu.rit.ds.RemoteEventListener;
 import edu.rit.ds.registry.AlreadyBoundException;
+import edu.rit.ds.registry.NotBoundException;
 import edu.rit.ds.registry.RegistryEvent;
 import edu.rit.ds.registry.RegistryEventFilter;
 import edu.rit.ds.registry.RegistryEventListener;
@@ -34,9 +43,123 @@ import edu.rit.ds.registry.RegistryProxy;
  *         listening. "name" : name of the city where the GPS office is located.
  *         "X" : GPS office's X coordinate. "Y" : GPS office's Y coordinate.
  * 
+ *         A GPS office takes custody of at most "gps.maxInFlight" packages
+ *         at a time (system property, 10000 by default). A new package from a
+ *         customer is rejected when the office is full. A package from
+ *         another office is pushed back, and that office offers it again
+ *         "gps.handOffRetries" times (5 by default) before rejecting it.
+ * 
+ *         The track numbers issued by a GPS office carry its node ID, which
+ *         is set with the "gps.nodeId" system property (0 to 4095, different
+ *         for every office) or else assigned by the GPS office directory,
+ *         which dir.bat starts. An office with neither does not start.
+ * 
+ *         With the "gps.routing" system property set to source, the office
+ *         that accepts a package plans its whole route on a snapshot of the
+ *         neighbor graph, with the shortest path to the office closest to
+ *         the destination, and the route travels in the receipt; the offices
+ *         on the way only read the next hop. A package without a route, or
+ *         whose next hop is not a neighbor any more, is routed greedily, one
+ *         hop at a time, which is the default ("gps.routing" set to greedy).
+ * 
+ *         The neighbors of an office are its Delaunay neighbors, on which
+ *         greedy routing always reaches the office closest to the
+ *         destination, unless the "gps.neighbors" system property chooses
+ *         the k closest offices instead (see NeighborSelector).
+ * 
+ *         Packages bound for the same neighbor are handed over together in
+ *         one call. A package waits at most "gps.forwardDelay" milliseconds
+ *         (10 by default, 0 to hand over every package on its own) for
+ *         others, and at most "gps.forwardBatch" packages (100 by default)
+ *         are handed over in one call.
+ * 
+ *         When a neighbor cannot be reached, its packages are rerouted to
+ *         the next best deliverer among this office and its other neighbors
+ *         instead of being reported lost. A package that no neighbor which
+ *         can be reached brings closer to the destination is held for
+ *         "gps.breakerOpenTime" milliseconds and routed again, and it is
+ *         reported lost after "gps.handOffRetries" such waits. After "gps.breakerFailures" failed
+ *         calls in a row (3 by default, 0 to report the packages lost as
+ *         before) the neighbor is taken for dead and skipped for
+ *         "gps.breakerOpenTime" milliseconds (10000 by default), so packages
+ *         do not wait for another call to time out. Then a single package
+ *         is handed to it as a probe, while the others still go around it.
+ * 
  */
 public class GPSOffice implements GPSOfficeInterface {
 
+	/**
+	 * Time in milliseconds that a GPS office takes to examine a package.
+	 */
+	private static final long EXAMINATION_TIME = 3000;
+	/**
+	 * Time in milliseconds after which the event session of a customer that
+	 * has no packages at a GPS office is closed.
+	 */
+	private static final long SESSION_IDLE_TIME = 60000;
+	/**
+	 * Time in milliseconds during which registry events are collected before
+	 * the neighbor table is updated.
+	 */
+	private static final long NEIGHBOR_UPDATE_DELAY = 100;
+	/**
+	 * Chooses the neighbors of this GPS office when there is no directory.
+	 */
+	private static final NeighborSelector NEIGHBORS = NeighborSelector
+			.fromProperties();
+	/**
+	 * Largest number of packages a GPS office has custody of at a time.
+	 */
+	private static final int MAX_IN_FLIGHT = Integer.getInteger(
+			"gps.maxInFlight", 10000);
+	/**
+	 * Number of times a package pushed back by a full GPS office is offered
+	 * again, and number of times a package is held for a neighbor taken for
+	 * dead before it is reported lost.
+	 */
+	private static final int HAND_OFF_RETRIES = Integer.getInteger(
+			"gps.handOffRetries", 5);
+	/**
+	 * Time in milliseconds before a package pushed back by a full GPS office
+	 * is first offered again. The time doubles with every retry.
+	 */
+	private static final long HAND_OFF_BACKOFF = 500;
+	/**
+	 * Largest time in milliseconds a package waits for other packages bound
+	 * for the same neighbor GPS office, so that they are handed over in one
+	 * call, or 0 to hand over every package on its own.
+	 */
+	private static final long FORWARD_DELAY = Long.getLong(
+			"gps.forwardDelay", 10);
+	/**
+	 * Largest number of packages handed to a neighbor GPS office in one call.
+	 */
+	private static final int FORWARD_BATCH = Integer.getInteger(
+			"gps.forwardBatch", 100);
+	/**
+	 * Number of failed calls in a row after which a neighbor GPS office is
+	 * taken for dead, or 0 to report the packages of a failed call lost
+	 * instead of rerouting them.
+	 */
+	private static final int BREAKER_FAILURES = Integer.getInteger(
+			"gps.breakerFailures", 3);
+	/**
+	 * Time in milliseconds a neighbor GPS office taken for dead is skipped
+	 * before it is called again.
+	 */
+	private static final long BREAKER_OPEN_TIME = Long.getLong(
+			"gps.breakerOpenTime", 10000);
+	/**
+	 * A flag to indicate if the packages are source routed.
+	 */
+	private static final boolean SOURCE_ROUTING = "source".equals(System
+			.getProperty("gps.routing", "greedy"));
+	/**
+	 * Time in milliseconds between two checks for a new snapshot of the
+	 * neighbor graph in the GPS office directory.
+	 */
+	private static final long TOPOLOGY_REFRESH = 10000;
+
 	/**
 	 * Name of the computer where the Registry Server is running.
 	 */
@@ -57,19 +180,39 @@ public class GPSOffice implements GPSOfficeInterface {
 	 * GPS office's Y coordinate.
 	 */
 	private double ypos;
+	/**
+	 * The name and location of this GPS office.
+	 */
+	private GPSOfficeDescriptor descriptor;
 	/**
 	 * A registry proxy reference.
 	 */
 	private RegistryProxy registry;
 	/**
-	 * A list that has the names of all the GPS office objects currently bound
-	 * to the registry server.
+	 * A map from the name to the location of every other GPS office object
+	 * currently bound to the registry server.
+	 */
+	private Map<String, GPSOfficeInfo> allOffices = new ConcurrentHashMap<String, GPSOfficeInfo>();
+	/**
+	 * This GPS office as a candidate deliverer of a package.
+	 */
+	private GPSOfficeInfo self;
+	/**
+	 * The current snapshot of the neighbor GPS offices. A new snapshot is
+	 * published whenever the neighbors change, so readers never need to lock
+	 * it.
+	 */
+	private volatile NeighborTable neighborTable;
+	/**
+	 * Names of the GPS offices that were bound or unbound since the neighbor
+	 * table was last updated.
 	 */
-	private List<String> allOfficeNames;
+	private Set<String> changedOffices = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	/**
-	 * A list that has the three closest neighbor GPS offices.
+	 * A flag to indicate if an update of the neighbor table is pending.
 	 */
-	private List<GPSOfficeInfo> neighbors;
+	private AtomicBoolean updatePending = new AtomicBoolean(false);
 	/**
 	 * A registry event listener object.
 	 */
@@ -78,15 +221,95 @@ public class GPSOffice implements GPSOfficeInterface {
 	 * A registry event filter object.
 	 */
 	private RegistryEventFilter registryFilter;
+	/**
+	 * The GPS office directory, or null if the neighbors are found in the
+	 * registry server.
+	 */
+	private GPSDirectoryInterface directory;
+	/**
+	 * The routes from this GPS office on the latest snapshot of the neighbor
+	 * graph, or null if packages are routed greedily.
+	 */
+	private volatile RouteTable routes;
+	/**
+	 * Version number of the snapshot of the neighbor graph built from the
+	 * registry server.
+	 */
+	private long topologyVersion;
+	/**
+	 * A listener that receives the neighbor sets from the GPS office
+	 * directory.
+	 */
+	private NeighborListener neighborListener;
 	/**
 	 * An object to create a thread pool.
 	 */
 	private ExecutorService executor;
+	/**
+	 * A timer that resumes the packages whose examination is complete. Waiting
+	 * packages are held in its queue, not in parked threads.
+	 */
+	private ScheduledExecutorService scheduler;
+	/**
+	 * The event sessions of the customers that have packages at this GPS
+	 * office.
+	 */
+	private EventSessionCache sessions;
+	/**
+	 * Number of packages this GPS office has custody of.
+	 */
+	private AtomicInteger inFlight = new AtomicInteger();
+	/**
+	 * Number of packages this GPS office has accepted.
+	 */
+	private AtomicLong accepted = new AtomicLong();
+	/**
+	 * Number of packages this GPS office has turned away because it was full.
+	 */
+	private AtomicLong refused = new AtomicLong();
+	/**
+	 * Number of remote calls this GPS office has made to hand packages to
+	 * other offices, and number of packages they took.
+	 */
+	private AtomicLong forwardCalls = new AtomicLong(),
+			forwarded = new AtomicLong();
+	/**
+	 * The packages waiting to be handed to a neighbor GPS office, by the name
+	 * of the neighbor.
+	 */
+	private Map<String, Outbox> outboxes = new ConcurrentHashMap<String, Outbox>();
+	/**
+	 * The circuit breakers of the neighbor GPS offices whose last call
+	 * failed, by the name of the neighbor. A breaker is dropped as soon as a
+	 * call to its neighbor goes through.
+	 */
+	private Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	/**
+	 * Number of remote calls to other offices that failed, and the time in
+	 * nanoseconds they took.
+	 */
+	private AtomicLong failedCalls = new AtomicLong(),
+			failedCallTime = new AtomicLong();
+	/**
+	 * Number of packages rerouted around a neighbor that could not be
+	 * reached, and number of packages lost by this GPS office.
+	 */
+	private AtomicLong rerouted = new AtomicLong(), lost = new AtomicLong();
 	/**
 	 * A remote event generator object that reports GPSOfficeEvent to the
 	 * Headquarters client class.
 	 */
 	private RemoteEventGenerator<GPSOfficeEvent> hqGenerator;
+	/**
+	 * The objects that report GPSOfficeEvents in batches, one for every
+	 * batching window asked for by a listener. A batcher is removed once the
+	 * leases of all its listeners are cancelled or expired.
+	 */
+	private Map<String, EventBatcher> hqBatchers = new ConcurrentHashMap<String, EventBatcher>();
+	/**
+	 * An object that issues the track numbers of the packages.
+	 */
+	private TrackNumberGenerator trackNumbers;
 
 	/**
 	 * Constructs a new GPSOffice object.
@@ -132,16 +355,31 @@ public class GPSOffice implements GPSOfficeInterface {
 					+ args[4]);
 		}
 
-		// Create a new RemoteEvenetGenerator object for the Headquarters class.
-		hqGenerator = new RemoteEventGenerator<GPSOfficeEvent>();
-
-		// Create a new thread pool executor object.
-		executor = Executors.newCachedThreadPool();
+		initialize(GPSExecutors.newExecutor(), GPSExecutors.newScheduler(),
+				TimeSource.SYSTEM, false);
 
-		// Create a registry proxy and bind it to the registry server with the
-		// given name.
+		// Create a registry proxy, find the node ID of this office and bind it
+		// to the registry server with the given name.
+		GPSDirectoryInterface directory;
 		try {
 			registry = new RegistryProxy(host, port);
+			directory = findDirectory();
+			trackNumbers = TrackNumberGenerator.fromProperty();
+			if (trackNumbers == null && directory != null) {
+				try {
+					trackNumbers = new TrackNumberGenerator(
+							directory.assignNodeId(name));
+				} catch (RemoteException e) {
+					directory = null;
+				}
+			}
+			if (trackNumbers == null) {
+				throw new IllegalArgumentException("GPSOffice: Set the "
+						+ TrackNumberGenerator.NODE_ID_PROPERTY
+						+ " system property to a node ID that no other GPS "
+						+ "office has, or start a GPS office directory first: "
+						+ "java Start GPSDirectory " + host + " " + port);
+			}
 			UnicastRemoteObject.exportObject(this, 0);
 			registry.bind(name, this);
 		} catch (AlreadyBoundException abe) {
@@ -167,20 +405,199 @@ public class GPSOffice implements GPSOfficeInterface {
 			throw e;
 		}
 
-		// Add the closest three neighbor GPSOffice objects.
+		// Get the neighbor GPSOffice objects from the GPS office directory,
+		// or find them in the registry server if there is no directory.
+		if (directory == null || !joinDirectory(directory)) {
+			listenToRegistry();
+		}
+	}
+
+	/**
+	 * Constructs a new GPSOffice object that runs in the same JVM as its
+	 * neighbors and customers, for a simulation. It is not exported or bound
+	 * to a registry server; it gets its neighbors from a local GPS office
+	 * directory, runs its packages on the given clock and reports the events
+	 * to the customers' listeners directly.
+	 * 
+	 * @param name
+	 *            name of the city where the GPS office is located.
+	 * @param x
+	 *            GPS office's X coordinate.
+	 * @param y
+	 *            GPS office's Y coordinate.
+	 * @param directory
+	 *            the local GPS office directory.
+	 * @param clock
+	 *            the executor and timer of the GPS office.
+	 * @param time
+	 *            the clock that keeps the same time as the timer.
+	 * @param trackNumbers
+	 *            the object that issues the track numbers, which may be shared
+	 *            by all the offices of the simulation.
+	 * @param remote
+	 *            the reference the other offices call this office through, or
+	 *            null to have them call it directly.
+	 * @throws RemoteException
+	 *             Thrown if the directory throws it.
+	 */
+	GPSOffice(String name, double x, double y, GPSDirectory directory,
+			ScheduledExecutorService clock, TimeSource time,
+			TrackNumberGenerator trackNumbers, GPSOfficeInterface remote)
+			throws RemoteException {
+		this.name = name;
+		xpos = x;
+		ypos = y;
+		this.trackNumbers = trackNumbers;
+		initialize(clock, clock, time, true);
+		neighborListener = new NeighborListener() {
+			public void neighborsChanged(NeighborSet neighbors) {
+				publishNeighbors(neighbors);
+			}
+		};
+		publishNeighbors(directory.register(new GPSOfficeEntry(descriptor,
+				remote == null ? this : remote), neighborListener));
+		this.directory = directory;
+		followTopology();
+	}
+
+	/**
+	 * Sets up the state of this GPS office that does not depend on how it is
+	 * reached.
+	 * 
+	 * @param executor
+	 *            the thread pool of the GPS office.
+	 * @param scheduler
+	 *            the timer of the GPS office.
+	 * @param time
+	 *            the clock that keeps the same time as the timer.
+	 * @param direct
+	 *            true if the events are reported to the customers' listeners
+	 *            directly.
+	 */
+	private void initialize(ExecutorService executor,
+			ScheduledExecutorService scheduler, TimeSource time,
+			boolean direct) {
+		descriptor = new GPSOfficeDescriptor(name, xpos, ypos);
+		self = new GPSOfficeInfo(0, this, name, xpos, ypos);
+		neighborTable = new NeighborTable(0, self,
+				new ArrayList<GPSOfficeInfo>());
+
+		// Create a new RemoteEvenetGenerator object for the Headquarters class.
+		hqGenerator = new RemoteEventGenerator<GPSOfficeEvent>();
+
+		// The thread pool and the timer for the examination of the packages.
+		this.executor = executor;
+		this.scheduler = scheduler;
+
+		// Create a new cache of the customers' event sessions.
+		sessions = new EventSessionCache(SESSION_IDLE_TIME, scheduler, time,
+				direct);
+	}
+
+	/**
+	 * Looks up the GPS office directory in the registry server.
+	 * 
+	 * @return The directory, or null if there is none.
+	 */
+	private GPSDirectoryInterface findDirectory() {
+		try {
+			return (GPSDirectoryInterface) registry.lookup(GPSDirectory.NAME);
+		} catch (NotBoundException e) {
+			return null;
+		} catch (RemoteException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Registers this GPS office with the GPS office directory, which then
+	 * pushes the neighbors of this office to it whenever they change.
+	 * 
+	 * @param directory
+	 *            The GPS office directory.
+	 * @return True if the office is registered, false otherwise.
+	 */
+	private boolean joinDirectory(GPSDirectoryInterface directory) {
+		try {
+			neighborListener = new NeighborListener() {
+				public void neighborsChanged(NeighborSet neighbors)
+						throws RemoteException {
+					publishNeighbors(neighbors);
+				}
+			};
+			UnicastRemoteObject.exportObject(neighborListener, 0);
+			publishNeighbors(directory.register(new GPSOfficeEntry(
+					descriptor, this), neighborListener));
+			this.directory = directory;
+			followTopology();
+			return true;
+		} catch (RemoteException e) {
+			System.out.println("Could not register with the GPS office "
+					+ "directory, using the registry server instead.");
+			e.printStackTrace();
+			try {
+				UnicastRemoteObject.unexportObject(neighborListener, true);
+			} catch (NoSuchObjectException nse) {
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Checks the GPS office directory for a new snapshot of the neighbor
+	 * graph now and periodically, if the packages are source routed.
+	 */
+	private void followTopology() {
+		if (!SOURCE_ROUTING) {
+			return;
+		}
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						refreshTopology();
+					}
+				});
+			}
+		}, 0, TOPOLOGY_REFRESH, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Fetches the snapshot of the neighbor graph from the GPS office
+	 * directory if it has changed. The old routes are kept if the directory
+	 * cannot be reached.
+	 */
+	private void refreshTopology() {
+		RouteTable current = routes;
+		try {
+			Topology topology = directory.getTopology(current == null ? -1
+					: current.topology.getVersion());
+			if (topology != null) {
+				routes = new RouteTable(topology, name);
+			}
+		} catch (RemoteException e) {
+		}
+	}
+
+	/**
+	 * Finds the neighbors of this GPS office in the registry server and keeps
+	 * them up to date with the registry events.
+	 * 
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	private void listenToRegistry() throws RemoteException {
+		// Add the neighbor GPSOffice objects.
 		addNeighbors();
 
 		// Create a new registry event listener.
 		registryListener = new RegistryEventListener() {
 			public void report(long seq, final RegistryEvent event)
 					throws RemoteException {
-				new Thread(new Runnable() {
-					@Override
-					public void run() {
-						// Add updated neighbor GPSOffice objects.
-						addNeighbors();
-					}
-				}).start();
+				// Update the neighbor GPSOffice objects with this change.
+				officeChanged(event.objectName());
 			}
 		};
 		UnicastRemoteObject.exportObject(registryListener, 0);
@@ -189,7 +606,6 @@ public class GPSOffice implements GPSOfficeInterface {
 		registryFilter = new RegistryEventFilter()
 				.reportType("GPSOfficeInterface").reportBound().reportUnbound();
 		registry.addEventListener(registryListener, registryFilter);
-
 	}
 
 	/**
@@ -225,6 +641,17 @@ public class GPSOffice implements GPSOfficeInterface {
 		return this.name;
 	}
 
+	/**
+	 * Gets the name and the location of this GPSOffice.
+	 * 
+	 * @return The descriptor of GPSOffice.
+	 * @throws RemoteException
+	 *             Thrown if there is a remote error.
+	 */
+	public GPSOfficeDescriptor getDescriptor() throws RemoteException {
+		return this.descriptor;
+	}
+
 	/**
 	 * Adds the given listener to the remote event generator
 	 * 
@@ -241,52 +668,194 @@ public class GPSOffice implements GPSOfficeInterface {
 	}
 
 	/**
-	 * Finds the closest three neighbor GPSOffice objects in the system.
+	 * Adds the given listener to the remote event generator that reports the
+	 * events in batches. Listeners that ask for the same window share one
+	 * generator.
+	 * 
+	 * @param listener
+	 *            A RemoteEventListener object that listens to batches of
+	 *            GPSOfficeEvents.
+	 * @param maxDelay
+	 *            Largest time in milliseconds an event waits before its batch
+	 *            is reported.
+	 * @param maxSize
+	 *            Largest number of events in a batch.
+	 * @return Lease object for the given listener.
+	 * @throws RemoteException
+	 *             Thrown if there is a remote error.
+	 */
+	@Override
+	public Lease addListener(
+			RemoteEventListener<GPSOfficeEventBatch> listener, long maxDelay,
+			int maxSize) throws RemoteException {
+		String window = maxDelay + ":" + maxSize;
+		for (;;) {
+			EventBatcher batcher = hqBatchers.get(window);
+			if (batcher == null) {
+				EventBatcher newBatcher = new EventBatcher(maxDelay, maxSize,
+						scheduler);
+				batcher = hqBatchers.putIfAbsent(window, newBatcher);
+				if (batcher == null) {
+					batcher = newBatcher;
+				}
+			}
+			Lease lease = batcher.addListener(listener);
+			if (lease != null) {
+				return lease;
+			}
+			// The batcher was closed after it was looked up.
+			hqBatchers.remove(window, batcher);
+		}
+	}
+
+	/**
+	 * Gets the load of this GPSOffice.
+	 * 
+	 * @return A snapshot of the load of GPSOffice.
+	 * @throws RemoteException
+	 *             Thrown if there is a remote error.
+	 */
+	public GPSOfficeStatus getStatus() throws RemoteException {
+		return new GPSOfficeStatus(name, trackNumbers.getNodeId(),
+				inFlight.get(), MAX_IN_FLIGHT, accepted.get(), refused.get(),
+				forwardCalls.get(), forwarded.get(), failedCalls.get(),
+				TimeUnit.NANOSECONDS.toMillis(failedCallTime.get()),
+				rerouted.get(), lost.get());
+	}
+
+	/**
+	 * Finds the neighbor GPSOffice objects in the system.
 	 */
 	private void addNeighbors() {
 		// Get the names of the objects bound to the registry server.
+		List<String> allOfficeNames = new ArrayList<String>();
 		try {
-			allOfficeNames = new ArrayList<String>();
 			allOfficeNames = registry.list("GPSOfficeInterface");
 		} catch (Exception e) {
 			System.out.println("Error while retrieving bound names "
 					+ "list from registry server.");
 			e.printStackTrace();
 		}
-		neighbors = new ArrayList<GPSOfficeInfo>();
-		synchronized (neighbors) {
-			for (String office : allOfficeNames) {
-				if (!office.equals(name)) {
-					GPSOfficeInterface nextOffice;
-					try {
-						nextOffice = (GPSOfficeInterface) registry
-								.lookup(office);
-						double x = nextOffice.getX(), y = nextOffice.getY();
-
-						// Find the distance of the current GPSOffice from this
-						// GPSOffice.
-						double distanceFromThisOffice = getDistance(x, y);
-
-						// Adds a new GPSOfficeInfo object to the neighbors list
-						neighbors.add(new GPSOfficeInfo(distanceFromThisOffice,
-								nextOffice, office, x, y));
-
-						// If the current neighbors list contains more than 3
-						// objects then sorts the list according to the
-						// distances from the current GPSOffice object and
-						// removes the last element.
-						if (neighbors.size() > 3) {
-							Collections.sort(neighbors);
-							neighbors.remove(3);
+		for (String office : allOfficeNames) {
+			updateOffice(office);
+		}
+		publishNeighbors();
+	}
+
+	/**
+	 * Records that a GPS office was bound or unbound and schedules an update
+	 * of the neighbor table. All the changes that are recorded before the
+	 * update runs are applied together.
+	 * 
+	 * @param office
+	 *            the name of the GPS office.
+	 */
+	private void officeChanged(String office) {
+		changedOffices.add(office);
+		if (updatePending.compareAndSet(false, true)) {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							updateNeighbors();
 						}
-					} catch (Exception e) {
-						// If an exception is caught, it is ignored and the next
-						// GPSOfficeInterface object is looked up.
-						continue;
-					}
+					});
 				}
+			}, NEIGHBOR_UPDATE_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Applies the recorded changes to the known GPS offices and publishes the
+	 * new neighbors.
+	 */
+	private synchronized void updateNeighbors() {
+		updatePending.set(false);
+		for (String office : changedOffices) {
+			changedOffices.remove(office);
+			updateOffice(office);
+		}
+		publishNeighbors();
+	}
+
+	/**
+	 * Looks up a GPS office and records its location, or forgets it if it is
+	 * no longer bound to the registry server.
+	 * 
+	 * @param office
+	 *            the name of the GPS office.
+	 */
+	private void updateOffice(String office) {
+		if (office.equals(name)) {
+			return;
+		}
+		try {
+			GPSOfficeInterface nextOffice = (GPSOfficeInterface) registry
+					.lookup(office);
+			GPSOfficeDescriptor d = nextOffice.getDescriptor();
+
+			// Find the distance of the current GPSOffice from this GPSOffice.
+			allOffices.put(office, new GPSOfficeInfo(getDistance(d.getX(),
+					d.getY()), nextOffice, d.getName(), d.getX(), d.getY()));
+		} catch (Exception e) {
+			// If the office is no longer bound or cannot be reached, it is
+			// not used as a neighbor.
+			allOffices.remove(office);
+		}
+	}
+
+	/**
+	 * Chooses the neighbors of this GPS office among the known offices and
+	 * publishes them as a new neighbor table if they have changed.
+	 */
+	private synchronized void publishNeighbors() {
+		List<GPSOfficeDescriptor> offices = new ArrayList<GPSOfficeDescriptor>();
+		for (GPSOfficeInfo info : allOffices.values()) {
+			offices.add(new GPSOfficeDescriptor(info.name, info.xpos,
+					info.ypos));
+		}
+		List<GPSOfficeInfo> closest = new ArrayList<GPSOfficeInfo>();
+		for (GPSOfficeDescriptor d : NEIGHBORS.select(descriptor,
+				NeighborSelector.candidates(offices)).neighbors) {
+			GPSOfficeInfo info = allOffices.get(d.getName());
+			if (info != null) {
+				closest.add(info);
 			}
 		}
+		NeighborTable current = neighborTable;
+		if (!closest.equals(current.neighbors)) {
+			neighborTable = new NeighborTable(current.version + 1, self,
+					closest);
+		}
+		if (SOURCE_ROUTING) {
+			// Every office chooses its neighbors the same way, so the
+			// neighbor graph follows from the locations of the offices.
+			offices.add(descriptor);
+			routes = new RouteTable(Topology.of(++topologyVersion, offices,
+					NEIGHBORS), name);
+		}
+	}
+
+	/**
+	 * Publishes a neighbor set received from the GPS office directory as the
+	 * new neighbor table, unless a newer set has already been published.
+	 * 
+	 * @param set
+	 *            the neighbor set.
+	 */
+	private synchronized void publishNeighbors(NeighborSet set) {
+		if (set.getVersion() <= neighborTable.version) {
+			return;
+		}
+		List<GPSOfficeInfo> closest = new ArrayList<GPSOfficeInfo>();
+		for (GPSOfficeEntry entry : set.getNeighbors()) {
+			GPSOfficeDescriptor d = entry.getDescriptor();
+			closest.add(new GPSOfficeInfo(getDistance(d.getX(), d.getY()),
+					entry.getOffice(), d.getName(), d.getX(), d.getY()));
+		}
+		neighborTable = new NeighborTable(set.getVersion(), self, closest);
 	}
 
 	/**
@@ -301,12 +870,29 @@ public class GPSOffice implements GPSOfficeInterface {
 	 *         given location.
 	 */
 	private double getDistance(double x, double y) {
-		return Math.sqrt((x - xpos) * (x - xpos) + (y - ypos) * (y - ypos));
+		return distance(xpos, ypos, x, y);
+	}
+
+	/**
+	 * Calculates the straight line distance between two points.
+	 * 
+	 * @param x1
+	 *            X coordinate of the first point
+	 * @param y1
+	 *            Y coordinate of the first point
+	 * @param x2
+	 *            X coordinate of the second point
+	 * @param y2
+	 *            Y coordinate of the second point
+	 * @return The distance between the points.
+	 */
+	static double distance(double x1, double y1, double x2, double y2) {
+		return Math.sqrt((x2 - x1) * (x2 - x1) + (y2 - y1) * (y2 - y1));
 	}
 
 	/**
 	 * Creates a new Receipt object and forwards the package through this GPS
-	 * Office.
+	 * Office, or rejects the package if this office is full.
 	 * 
 	 * @param destx
 	 *            X coordinate of the destination.
@@ -321,10 +907,61 @@ public class GPSOffice implements GPSOfficeInterface {
 	public void sendPackage(final double destx, final double desty,
 			final RemoteEventListener<GPSOfficeEvent> listener)
 			throws RemoteException {
-		forwardPackage(createReceipt(destx, desty), destx, desty, listener);
+		Receipt receipt = createReceipt(destx, desty);
+		EventSession session = sessions.acquire(listener);
+		if (admit()) {
+			receivePackage(receipt, destx, desty, listener, session);
+		} else {
+			reportEvent(session, GPSOfficeEvent.rejected(receipt, name));
+			session.release();
+		}
+	}
+
+	/**
+	 * Creates a new Receipt object for each package of a batch and forwards
+	 * the packages through this GPS Office. All the packages share the event
+	 * session of the given listener. The packages that do not fit in
+	 * this office are rejected.
+	 * 
+	 * @param destx
+	 *            X coordinates of the destinations.
+	 * @param desty
+	 *            Y coordinates of the destinations.
+	 * @param listener
+	 *            A remote event listener that listens to events related to the
+	 *            transportation of these packages.
+	 * @return The receipts of the packages, in the order of the destinations.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the coordinate arrays are not of the same length.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public Receipt[] sendPackages(double[] destx, double[] desty,
+			RemoteEventListener<GPSOfficeEvent> listener)
+			throws RemoteException {
+		if (destx == null || desty == null || destx.length != desty.length) {
+			throw new IllegalArgumentException(
+					"GPSOffice: Destination coordinates do not match");
+		}
+		Receipt[] receipts = new Receipt[destx.length];
+		for (int i = 0; i < destx.length; ++i) {
+			receipts[i] = createReceipt(destx[i], desty[i]);
+			EventSession session = sessions.acquire(listener);
+			if (admit()) {
+				receivePackage(receipts[i], destx[i], desty[i], listener,
+						session);
+			} else {
+				reportEvent(session,
+						GPSOfficeEvent.rejected(receipts[i], name));
+				session.release();
+			}
+		}
+		return receipts;
 	}
 
 	/**
+	 * Creates a new Receipt object with a track number that no other package
+	 * has.
 	 * 
 	 * @param destx
 	 *            X coordinate of the destination.
@@ -334,12 +971,17 @@ public class GPSOffice implements GPSOfficeInterface {
 	 *         coordinates.
 	 */
 	private Receipt createReceipt(double destx, double desty) {
-		return new Receipt(System.currentTimeMillis(), destx, desty);
+		RouteTable r = routes;
+		return new Receipt(trackNumbers.next(), destx, desty, r == null ? null
+				: r.route(destx, desty));
 	}
 
 	/**
 	 * Forwards the package to the destination by taking the shortest possible
-	 * route through the neighbor GPSOffice objects or itself.
+	 * route through the neighbor GPSOffice objects or itself. This GPS office
+	 * takes custody of the package and returns at once; the arrival,
+	 * examination and routing of the package happen on its own threads, so
+	 * the caller is released after a single round trip.
 	 * 
 	 * @param receipt
 	 *            A receipt object that is used for forwarding the package.
@@ -350,94 +992,942 @@ public class GPSOffice implements GPSOfficeInterface {
 	 * @param listener
 	 *            A remote event listener that listens to events related to this
 	 *            package transportation.
+	 * @return True if this office took custody of the package, false if it is
+	 *         full.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
 	 */
-	public void forwardPackage(final Receipt receipt, final double destx,
+	public boolean forwardPackage(final Receipt receipt, final double destx,
 			final double desty,
-			final RemoteEventListener<GPSOfficeEvent> listener) {
-
-		// A list that has the GPSOffice objects in ascending order of the
-		// distance from the destination.
-		final List<GPSOfficeInfo> deliverers;
-
-		// Add the customers remote event listener to the generator object and
-		// report event of the arrival of the package.
-		RemoteEventGenerator<GPSOfficeEvent> generator = null;
-		try {
-			generator = new RemoteEventGenerator<GPSOfficeEvent>();
-			generator.addListener(listener);
-			generator.reportEvent(new GPSOfficeEvent(receipt, name, false,
-					false, true));
-			hqGenerator.reportEvent(new GPSOfficeEvent(receipt, name, false,
-					false, true));
-		} catch (RemoteException e) {
-			System.out.println("Could not add the listener successfully.");
-			e.printStackTrace();
+			final RemoteEventListener<GPSOfficeEvent> listener)
+			throws RemoteException {
+		if (!admit()) {
+			return false;
 		}
-
-		// Wait for 3 seconds to examine the package.
-		examinePackage();
-
-		// Add this and the neighbor GPSOffice objects to the list and sort them
-		// according to their distance from the destination.
-		deliverers = new ArrayList<GPSOfficeInfo>();
-		deliverers.addAll(neighbors);
-		deliverers.add(new GPSOfficeInfo(0, this, name, xpos, ypos));
-		Collections.sort(deliverers, new Comparator<GPSOfficeInfo>() {
-
+		executor.execute(new Runnable() {
 			@Override
-			public int compare(GPSOfficeInfo o1, GPSOfficeInfo o2) {
-				double d1 = o1.getDistance(destx, desty);
-				double d2 = o2.getDistance(destx, desty);
-				return ((d1 - d2) == 0) ? -1 : ((d1 - d2) > 0.0) ? 1 : -1;
+			public void run() {
+				receivePackage(receipt, destx, desty, listener,
+						sessions.acquire(listener));
 			}
-
 		});
+		return true;
+	}
 
-		// If the current GPS Office is the closest to the destination then
-		// delivers the package and reports the corresponding events to the
+	/**
+	 * Takes custody of a batch of packages from another GPS office. This GPS
+	 * office takes the packages it has room for and returns at once; the
+	 * packages then go through the same stages as a forwarded package.
+	 * 
+	 * @param batch
+	 *            The packages.
+	 * @return For every package, true if this office took custody of it,
+	 *         false if it is full.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public boolean[] forwardPackages(final PackageBatch batch)
+			throws RemoteException {
+		final boolean[] taken = new boolean[batch.size()];
+		boolean any = false;
+		for (int i = 0; i < taken.length; ++i) {
+			taken[i] = admit();
+			any |= taken[i];
+		}
+		if (any) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < taken.length; ++i) {
+						if (taken[i]) {
+							Receipt receipt = batch.getReceipt(i);
+							RemoteEventListener<GPSOfficeEvent> listener = batch
+									.getListener(i);
+							receivePackage(receipt, receipt.getX(),
+									receipt.getY(), listener,
+									sessions.acquire(listener));
+						}
+					}
+				}
+			});
+		}
+		return taken;
+	}
+
+	/**
+	 * Takes custody of a package if this GPS office is not full.
+	 * 
+	 * @return True if the package is admitted, false otherwise.
+	 */
+	private boolean admit() {
+		int n;
+		do {
+			n = inFlight.get();
+			if (n >= MAX_IN_FLIGHT) {
+				refused.incrementAndGet();
+				return false;
+			}
+		} while (!inFlight.compareAndSet(n, n + 1));
+		accepted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Gives up custody of a package that was delivered, lost, rejected or
+	 * handed to another office.
+	 * 
+	 * @param session
+	 *            The event session of the package.
+	 */
+	private void release(EventSession session) {
+		session.release();
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Reports an event of a package transportation to the customer's listener
+	 * and to the Headquarters.
+	 * 
+	 * @param session
+	 *            The event session of the customer's listener.
+	 * @param event
+	 *            The event.
+	 */
+	private void reportEvent(EventSession session, GPSOfficeEvent event) {
+		session.reportEvent(event);
+		hqGenerator.reportEvent(event);
+		for (Map.Entry<String, EventBatcher> entry : hqBatchers.entrySet()) {
+			EventBatcher batcher = entry.getValue();
+			if (batcher.closeIfIdle()) {
+				hqBatchers.remove(entry.getKey(), batcher);
+			} else {
+				batcher.reportEvent(event);
+			}
+		}
+	}
+
+	/**
+	 * Reports the arrival of a package at this GPS office and examines it.
+	 * 
+	 * @param receipt
+	 *            A receipt object that is used for forwarding the package.
+	 * @param destx
+	 *            X coordinate of the destination.
+	 * @param desty
+	 *            Y coordinate of the destination/
+	 * @param listener
+	 *            A remote event listener that listens to events related to this
+	 *            package transportation.
+	 * @param session
+	 *            The event session of the listener.
+	 */
+	private void receivePackage(final Receipt receipt, final double destx,
+			final double desty,
+			final RemoteEventListener<GPSOfficeEvent> listener,
+			final EventSession session) {
+		// Report event of the arrival of the package.
+		reportEvent(session, new GPSOfficeEvent(receipt, name, false, false,
+				true));
+
+		// Examine the package for 3 seconds and then route it.
+		examinePackage(new Runnable() {
+			@Override
+			public void run() {
+				routePackage(receipt, destx, desty, listener, session);
+			}
+		});
+	}
+
+	/**
+	 * Delivers an examined package or sends it to the neighbor GPS office that
+	 * is closest to the destination.
+	 * 
+	 * @param receipt
+	 *            A receipt object that is used for forwarding the package.
+	 * @param destx
+	 *            X coordinate of the destination.
+	 * @param desty
+	 *            Y coordinate of the destination/
+	 * @param listener
+	 *            A remote event listener that listens to events related to this
+	 *            package transportation.
+	 * @param session
+	 *            The event session of the listener.
+	 */
+	private void routePackage(final Receipt receipt, final double destx,
+			final double desty,
+			final RemoteEventListener<GPSOfficeEvent> listener,
+			final EventSession session) {
+		// Follow the route of the package, or find the GPSOffice object among
+		// this and the neighbor GPSOffice objects that is closest to the
+		// destination. A route hop taken for dead is skipped.
+		NeighborTable table = neighborTable;
+		GPSOfficeInfo next = null;
+		Receipt forwarded = receipt;
+		boolean avoided = false;
+		if (receipt.getRoute() != null) {
+			String hop = receipt.nextHop(name);
+			if (hop != null) {
+				next = hop.equals(name) ? self : table.neighbor(hop);
+			}
+			if (next != null && isDead(next.name)) {
+				next = null;
+				avoided = true;
+			}
+			if (next == null) {
+				// The route is out of date. The package is routed greedily
+				// from here on, so it cannot go back to an office on its route
+				// and round in a loop.
+				forwarded = new Receipt(receipt.getTrackNumber(), destx, desty);
+			}
+		}
+		GPSOfficeInfo deliverer = next;
+		if (deliverer == null) {
+			deliverer = table.nextHop(destx, desty);
+			// A package counts as rerouted only if another neighbor takes it;
+			// one bound for a neighbor taken for dead is rerouted by handOff.
+			if (avoided && !deliverer.name.equals(name)
+					&& !isDead(deliverer.name)) {
+				rerouted.incrementAndGet();
+			}
+		}
+
+		// If the current GPS Office is the closest to the destination then
+		// delivers the package and reports the corresponding events to the
 		// listeners.
-		if (deliverers.get(0).name.equals(name)) {
-			generator.reportEvent(new GPSOfficeEvent(receipt, name, false,
-					true, false));
-			hqGenerator.reportEvent(new GPSOfficeEvent(receipt, name, false,
+		if (deliverer.name.equals(name)) {
+			reportEvent(session, new GPSOfficeEvent(receipt, name, false,
 					true, false));
+			release(session);
 		}
 
 		// Else forwards the package to the neighbor GPS office that is closest
-		// to the destination.
+		// to the destination. The neighbor acknowledges as soon as it has
+		// taken custody of the package.
 		else {
-			generator.reportEvent(new GPSOfficeEvent(receipt, name, false,
+			reportEvent(session, new GPSOfficeEvent(receipt, name, false,
 					false, false));
-			hqGenerator.reportEvent(new GPSOfficeEvent(receipt, name, false,
-					false, false));
-			final RemoteEventGenerator<GPSOfficeEvent> finalGenerator = generator;
-			executor.execute(new Runnable() {
+			handOff(new Parcel(forwarded, destx, desty, listener, session, 0,
+					0, null), deliverer);
+		}
+	}
+
+	/**
+	 * Hands a package to a neighbor GPS office. If the neighbor is full, this
+	 * office keeps the package and offers it again later; the package is
+	 * rejected when the retries are used up. Unless FORWARD_DELAY is 0, the
+	 * package is put in the outbox of the neighbor and handed over with the
+	 * other packages bound for it.
+	 * 
+	 * @param parcel
+	 *            The package.
+	 * @param deliverer
+	 *            The neighbor GPS office.
+	 */
+	private void handOff(Parcel parcel, GPSOfficeInfo deliverer) {
+		if (isDead(deliverer.name)) {
+			reroute(parcel, deliverer.name);
+			return;
+		}
+		if (FORWARD_DELAY > 0 && FORWARD_BATCH > 1) {
+			outbox(deliverer.name).add(parcel, deliverer);
+			return;
+		}
+		if (skipCall(deliverer.name)) {
+			reroute(parcel, deliverer.name);
+			return;
+		}
+		boolean taken;
+		long start = System.nanoTime();
+		try {
+			forwardCalls.incrementAndGet();
+			taken = deliverer.office.forwardPackage(parcel.receipt,
+					parcel.destx, parcel.desty, parcel.listener);
+		} catch (Exception e) {
+			failed(deliverer, Collections.singletonList(parcel), start);
+			return;
+		}
+		reached(deliverer);
+		handedOff(parcel, deliverer, taken);
+	}
+
+	/**
+	 * Hands the packages in an outbox to a neighbor GPS office in one call.
+	 * 
+	 * @param deliverer
+	 *            The neighbor GPS office.
+	 * @param parcels
+	 *            The packages.
+	 */
+	private void handOff(GPSOfficeInfo deliverer, List<Parcel> parcels) {
+		if (skipCall(deliverer.name)) {
+			for (Parcel parcel : parcels) {
+				reroute(parcel, deliverer.name);
+			}
+			return;
+		}
+		PackageBatch batch = new PackageBatch();
+		for (Parcel parcel : parcels) {
+			batch.add(parcel.receipt, parcel.listener);
+		}
+		boolean[] taken;
+		long start = System.nanoTime();
+		try {
+			forwardCalls.incrementAndGet();
+			taken = deliverer.office.forwardPackages(batch);
+		} catch (Exception e) {
+			failed(deliverer, parcels, start);
+			return;
+		}
+		reached(deliverer);
+		for (int i = 0; i < parcels.size(); ++i) {
+			handedOff(parcels.get(i), deliverer, taken[i]);
+		}
+	}
+
+	/**
+	 * Gives up custody of a package that a neighbor GPS office took, or
+	 * offers it again later if the neighbor was full.
+	 * 
+	 * @param parcel
+	 *            The package.
+	 * @param deliverer
+	 *            The neighbor GPS office.
+	 * @param taken
+	 *            True if the neighbor took custody of the package.
+	 */
+	private void handedOff(final Parcel parcel, final GPSOfficeInfo deliverer,
+			boolean taken) {
+		if (taken) {
+			forwarded.incrementAndGet();
+			release(parcel.session);
+		} else if (parcel.attempt < HAND_OFF_RETRIES) {
+			scheduler.schedule(new Runnable() {
 				@Override
 				public void run() {
-					String cityName = name;
-					try {
-						cityName = deliverers.get(0).office.getName();
-						deliverers.get(0).office.forwardPackage(receipt, destx,
-								desty, listener);
-					} catch (Exception e) {
-						finalGenerator.reportEvent(new GPSOfficeEvent(receipt,
-								cityName, true, false, false));
-						hqGenerator.reportEvent(new GPSOfficeEvent(receipt,
-								cityName, true, false, false));
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							handOff(parcel.retry(), deliverer);
+						}
+					});
+				}
+			}, HAND_OFF_BACKOFF << parcel.attempt, TimeUnit.MILLISECONDS);
+		} else {
+			reportEvent(parcel.session, GPSOfficeEvent.rejected(
+					parcel.receipt, name));
+			release(parcel.session);
+		}
+	}
+
+	/**
+	 * Records a call that reached a neighbor GPS office, which closes its
+	 * circuit breaker.
+	 * 
+	 * @param deliverer
+	 *            The neighbor GPS office.
+	 */
+	private void reached(GPSOfficeInfo deliverer) {
+		if (!breakers.isEmpty()) {
+			CircuitBreaker breaker = breakers.remove(deliverer.name);
+			if (breaker != null) {
+				breaker.success();
+			}
+		}
+	}
+
+	/**
+	 * Records a call that failed to reach a neighbor GPS office and reroutes
+	 * its packages, or reports them lost if there are no circuit breakers.
+	 * 
+	 * @param deliverer
+	 *            The neighbor GPS office.
+	 * @param parcels
+	 *            The packages of the call.
+	 * @param start
+	 *            Time in nanoseconds when the call was made.
+	 */
+	private void failed(GPSOfficeInfo deliverer, List<Parcel> parcels,
+			long start) {
+		failedCalls.incrementAndGet();
+		failedCallTime.addAndGet(System.nanoTime() - start);
+		if (BREAKER_FAILURES <= 0) {
+			// The packages are lost by this office if the neighbor GPS office
+			// cannot be reached.
+			for (Parcel parcel : parcels) {
+				lose(parcel.receipt, parcel.session);
+			}
+			return;
+		}
+		breaker(deliverer.name).failure();
+		for (Parcel parcel : parcels) {
+			reroute(parcel, deliverer.name);
+		}
+	}
+
+	/**
+	 * Sends a package that could not be handed to a neighbor GPS office to
+	 * the next best deliverer: the office closest to the destination among
+	 * this office and the neighbors that are neither taken for dead nor
+	 * already tried. Every deliverer chosen is closer to the destination than
+	 * this office, so the package cannot go round in a loop. If none is, the
+	 * package is delivered by this office only if it is closer to the
+	 * destination than all its neighbors; otherwise it is held.
+	 * 
+	 * @param parcel
+	 *            The package.
+	 * @param failed
+	 *            Name of the neighbor that could not be reached.
+	 */
+	private void reroute(Parcel parcel, String failed) {
+		Parcel next = parcel.avoiding(failed);
+		NeighborTable table = neighborTable;
+		GPSOfficeInfo deliverer = table.nextHop(next.destx, next.desty,
+				unreachable(next.avoid));
+		if (!deliverer.name.equals(name)) {
+			rerouted.incrementAndGet();
+			handOff(next, deliverer);
+		} else if (table.nextHop(next.destx, next.desty).name.equals(name)) {
+			deliver(next);
+		} else {
+			hold(next);
+		}
+	}
+
+	/**
+	 * Holds a package that no neighbor GPS office which can be reached
+	 * brings closer to the destination, and routes it again when the
+	 * circuit breakers of the neighbors have let a probe through. The
+	 * package is reported lost after HAND_OFF_RETRIES such waits.
+	 * 
+	 * @param parcel
+	 *            The package.
+	 */
+	private void hold(final Parcel parcel) {
+		if (parcel.waits >= HAND_OFF_RETRIES) {
+			lose(parcel.receipt, parcel.session);
+			return;
+		}
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Parcel next = parcel.waited();
+						GPSOfficeInfo deliverer = neighborTable.nextHop(
+								next.destx, next.desty);
+						if (deliverer.name.equals(name)) {
+							deliver(next);
+						} else {
+							handOff(next, deliverer);
+						}
+					}
+				});
+			}
+		}, BREAKER_OPEN_TIME, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Delivers a package that this GPS office has custody of.
+	 * 
+	 * @param parcel
+	 *            The package.
+	 */
+	private void deliver(Parcel parcel) {
+		reportEvent(parcel.session, new GPSOfficeEvent(parcel.receipt, name,
+				false, true, false));
+		release(parcel.session);
+	}
+
+	/**
+	 * Returns true if a neighbor GPS office is taken for dead. A neighbor
+	 * whose circuit breaker lets a probe call through is not.
+	 * 
+	 * @param neighbor
+	 *            Name of the neighbor.
+	 * @return True if the circuit breaker of the neighbor lets no call
+	 *         through.
+	 */
+	private boolean isDead(String neighbor) {
+		if (breakers.isEmpty()) {
+			return false;
+		}
+		CircuitBreaker breaker = breakers.get(neighbor);
+		return breaker != null && !breaker.isCallable();
+	}
+
+	/**
+	 * Returns true if a call to a neighbor GPS office is to be skipped. The
+	 * caller that gets false must make the call, since it may have claimed
+	 * the probe of a half open circuit breaker.
+	 * 
+	 * @param neighbor
+	 *            Name of the neighbor.
+	 * @return True if the circuit breaker of the neighbor is open.
+	 */
+	private boolean skipCall(String neighbor) {
+		if (breakers.isEmpty()) {
+			return false;
+		}
+		CircuitBreaker breaker = breakers.get(neighbor);
+		return breaker != null && breaker.isOpen();
+	}
+
+	/**
+	 * Returns the names of the neighbor GPS offices a package must not be
+	 * handed to.
+	 * 
+	 * @param avoid
+	 *            Names of the neighbors the package could not be handed to,
+	 *            or null.
+	 * @return The names of those neighbors and of the neighbors taken for
+	 *         dead.
+	 */
+	private Collection<String> unreachable(Set<String> avoid) {
+		Set<String> names = avoid == null ? new HashSet<String>()
+				: new HashSet<String>(avoid);
+		for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+			if (!entry.getValue().isCallable()) {
+				names.add(entry.getKey());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the circuit breaker of a neighbor GPS office.
+	 * 
+	 * @param neighbor
+	 *            Name of the neighbor.
+	 * @return the circuit breaker.
+	 */
+	private CircuitBreaker breaker(String neighbor) {
+		CircuitBreaker breaker = breakers.get(neighbor);
+		if (breaker == null) {
+			CircuitBreaker newBreaker = new CircuitBreaker(BREAKER_FAILURES,
+					BREAKER_OPEN_TIME, scheduler);
+			breaker = breakers.putIfAbsent(neighbor, newBreaker);
+			if (breaker == null) {
+				breaker = newBreaker;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Reports a package as lost by this GPS office and gives up custody of
+	 * it.
+	 * 
+	 * @param receipt
+	 *            The receipt of the package.
+	 * @param session
+	 *            The event session of the package.
+	 */
+	private void lose(Receipt receipt, EventSession session) {
+		lost.incrementAndGet();
+		reportEvent(session, new GPSOfficeEvent(receipt, name, true, false,
+				false));
+		release(session);
+	}
+
+	/**
+	 * Returns the outbox of a neighbor GPS office.
+	 * 
+	 * @param neighbor
+	 *            Name of the neighbor.
+	 * @return the outbox.
+	 */
+	private Outbox outbox(String neighbor) {
+		Outbox outbox = outboxes.get(neighbor);
+		if (outbox == null) {
+			Outbox newOutbox = new Outbox();
+			outbox = outboxes.putIfAbsent(neighbor, newOutbox);
+			if (outbox == null) {
+				outbox = newOutbox;
+			}
+		}
+		return outbox;
+	}
+
+	/**
+	 * Examines a package for 3 seconds. No thread waits during the
+	 * examination; the given stage is run on the thread pool once it is over.
+	 * 
+	 * @param next
+	 *            The stage that continues the package after the examination.
+	 */
+	private void examinePackage(final Runnable next) {
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(next);
+			}
+		}, EXAMINATION_TIME, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Class Outbox collects the packages bound for one neighbor GPS office.
+	 * The packages are handed over together when the outbox holds
+	 * FORWARD_BATCH of them or when the oldest has waited for FORWARD_DELAY,
+	 * whichever comes first.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private class Outbox {
+		/**
+		 * The neighbor GPS office, as last seen in the neighbor table.
+		 */
+		private GPSOfficeInfo deliverer;
+		/**
+		 * The packages waiting in the outbox, oldest first.
+		 */
+		private List<Parcel> parcels = new ArrayList<Parcel>();
+		/**
+		 * Number of batches handed over so far. It identifies the current
+		 * batch.
+		 */
+		private long batches = 0;
+
+		/**
+		 * Adds a package to the outbox.
+		 * 
+		 * @param parcel
+		 *            The package.
+		 * @param deliverer
+		 *            The neighbor GPS office.
+		 */
+		public synchronized void add(Parcel parcel, GPSOfficeInfo deliverer) {
+			this.deliverer = deliverer;
+			parcels.add(parcel);
+			if (parcels.size() >= FORWARD_BATCH) {
+				flush();
+			} else if (parcels.size() == 1) {
+				final long batch = batches;
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush(batch);
+					}
+				}, FORWARD_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * Hands over a batch whose delay is over, unless it was already
+		 * handed over because it was full.
+		 * 
+		 * @param batch
+		 *            The number of the batch.
+		 */
+		private synchronized void flush(long batch) {
+			if (batch == batches) {
+				flush();
+			}
+		}
+
+		/**
+		 * Hands over the current batch on the thread pool and starts a new
+		 * one.
+		 */
+		private synchronized void flush() {
+			if (!parcels.isEmpty()) {
+				final GPSOfficeInfo to = deliverer;
+				final List<Parcel> batch = parcels;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						handOff(to, batch);
 					}
+				});
+				parcels = new ArrayList<Parcel>();
+				++batches;
+			}
+		}
+	}
+
+	/**
+	 * Class Parcel is a package on its way to a neighbor GPS office.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Parcel {
+		/**
+		 * The receipt of the package.
+		 */
+		public final Receipt receipt;
+		/**
+		 * Coordinates of the destination.
+		 */
+		public final double destx, desty;
+		/**
+		 * The listener of the customer.
+		 */
+		public final RemoteEventListener<GPSOfficeEvent> listener;
+		/**
+		 * The event session of the listener.
+		 */
+		public final EventSession session;
+		/**
+		 * Number of times the package has been pushed back.
+		 */
+		public final int attempt;
+		/**
+		 * Number of times the package has been held for a neighbor taken for
+		 * dead.
+		 */
+		public final int waits;
+		/**
+		 * Names of the neighbors this office could not hand the package to,
+		 * or null.
+		 */
+		public final Set<String> avoid;
+
+		/**
+		 * Construct a new Parcel object.
+		 */
+		public Parcel(Receipt receipt, double destx, double desty,
+				RemoteEventListener<GPSOfficeEvent> listener,
+				EventSession session, int attempt, int waits,
+				Set<String> avoid) {
+			this.receipt = receipt;
+			this.destx = destx;
+			this.desty = desty;
+			this.listener = listener;
+			this.session = session;
+			this.attempt = attempt;
+			this.waits = waits;
+			this.avoid = avoid;
+		}
+
+		/**
+		 * Returns this package as it is offered again after a push back.
+		 * 
+		 * @return the package.
+		 */
+		public Parcel retry() {
+			return new Parcel(receipt, destx, desty, listener, session,
+					attempt + 1, waits, avoid);
+		}
+
+		/**
+		 * Returns this package as it is routed again after it was held. The
+		 * neighbors it could not be handed to are tried again.
+		 * 
+		 * @return the package.
+		 */
+		public Parcel waited() {
+			return new Parcel(receipt, destx, desty, listener, session,
+					attempt, waits + 1, null);
+		}
+
+		/**
+		 * Returns this package as it is rerouted around a neighbor. The
+		 * package leaves its route, if it has one, and is routed greedily from
+		 * here on.
+		 * 
+		 * @param neighbor
+		 *            Name of the neighbor that could not be reached.
+		 * @return the package.
+		 */
+		public Parcel avoiding(String neighbor) {
+			Set<String> names = avoid == null ? new HashSet<String>()
+					: new HashSet<String>(avoid);
+			names.add(neighbor);
+			Receipt r = receipt.getRoute() == null ? receipt : new Receipt(
+					receipt.getTrackNumber(), destx, desty);
+			return new Parcel(r, destx, desty, listener, session, attempt,
+					waits, names);
+		}
+	}
+
+	/**
+	 * Class NeighborTable is an immutable snapshot of the neighbor GPS offices
+	 * of this GPS office. The version increases by one with every change.
+	 * 
+	 * The table also holds the locations of this office and its neighbors in
+	 * flat arrays. The office that a package is handed to is the one whose
+	 * Voronoi cell among these offices contains the destination, which is
+	 * found by comparing squared distances without allocating any objects.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	static class NeighborTable {
+		/**
+		 * Version number of this snapshot.
+		 */
+		public final long version;
+		/**
+		 * An unmodifiable list of the neighbors, closest first.
+		 */
+		public final List<GPSOfficeInfo> neighbors;
+		/**
+		 * This office followed by its neighbors.
+		 */
+		private final GPSOfficeInfo[] deliverers;
+		/**
+		 * X coordinates of the deliverers.
+		 */
+		private final double[] xs;
+		/**
+		 * Y coordinates of the deliverers.
+		 */
+		private final double[] ys;
+
+		/**
+		 * Construct a new NeighborTable object.
+		 * 
+		 * @param v
+		 *            version number of the snapshot
+		 * @param self
+		 *            this GPS office
+		 * @param n
+		 *            the neighbors, closest first
+		 */
+		public NeighborTable(long v, GPSOfficeInfo self, List<GPSOfficeInfo> n) {
+			version = v;
+			neighbors = Collections.unmodifiableList(n);
+			deliverers = new GPSOfficeInfo[n.size() + 1];
+			xs = new double[deliverers.length];
+			ys = new double[deliverers.length];
+			deliverers[0] = self;
+			for (int i = 0; i < n.size(); ++i) {
+				deliverers[i + 1] = n.get(i);
+			}
+			for (int i = 0; i < deliverers.length; ++i) {
+				xs[i] = deliverers[i].xpos;
+				ys[i] = deliverers[i].ypos;
+			}
+		}
+
+		/**
+		 * Finds the GPS office among this office and its neighbors that is
+		 * closest to a destination. This office wins a tie, so that a package
+		 * is never sent to an office that is no closer to its destination.
+		 * 
+		 * @param x
+		 *            X coordinate of the destination.
+		 * @param y
+		 *            Y coordinate of the destination.
+		 * @return the closest GPS office.
+		 */
+		public GPSOfficeInfo nextHop(double x, double y) {
+			return nextHop(x, y, Collections.<String> emptySet());
+		}
+
+		/**
+		 * Finds the GPS office among this office and its neighbors that is
+		 * closest to a destination, leaving out some of the neighbors. This
+		 * office wins a tie.
+		 * 
+		 * @param x
+		 *            X coordinate of the destination.
+		 * @param y
+		 *            Y coordinate of the destination.
+		 * @param skip
+		 *            Names of the neighbors to leave out.
+		 * @return the closest GPS office.
+		 */
+		public GPSOfficeInfo nextHop(double x, double y,
+				Collection<String> skip) {
+			int best = 0;
+			double bestDistance = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < xs.length; ++i) {
+				if (i > 0 && !skip.isEmpty()
+						&& skip.contains(deliverers[i].name)) {
+					continue;
 				}
-			});
+				double dx = x - xs[i], dy = y - ys[i];
+				double d = dx * dx + dy * dy;
+				if (d < bestDistance) {
+					best = i;
+					bestDistance = d;
+				}
+			}
+			return deliverers[best];
+		}
+
+		/**
+		 * Finds a neighbor by name.
+		 * 
+		 * @param name
+		 *            Name of the neighbor.
+		 * @return the neighbor, or null if there is no neighbor of that name.
+		 */
+		public GPSOfficeInfo neighbor(String name) {
+			for (int i = 1; i < deliverers.length; ++i) {
+				if (deliverers[i].name.equals(name)) {
+					return deliverers[i];
+				}
+			}
+			return null;
 		}
 	}
 
 	/**
-	 * Waits for 3 seconds to examine a package.
+	 * Class RouteTable holds the shortest paths from this GPS office on a
+	 * snapshot of the neighbor graph. The paths are found when the first
+	 * route is asked for.
+	 * 
+	 * @author Chinmay Dani
+	 * 
 	 */
-	private void examinePackage() {
-		try {
-			Thread.sleep(3000);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+	private static class RouteTable {
+		/**
+		 * The snapshot of the neighbor graph.
+		 */
+		public final Topology topology;
+		/**
+		 * Index of this GPS office in the snapshot, or -1 if it is not in it.
+		 */
+		private final int source;
+		/**
+		 * The shortest paths from this GPS office, or null until they are
+		 * found.
+		 */
+		private volatile int[] previous;
+
+		/**
+		 * Construct a new RouteTable object.
+		 * 
+		 * @param topology
+		 *            the snapshot of the neighbor graph
+		 * @param name
+		 *            name of this GPS office
+		 */
+		public RouteTable(Topology topology, String name) {
+			this.topology = topology;
+			source = topology.indexOf(name);
+		}
+
+		/**
+		 * Plans the route of a package to the GPS office closest to its
+		 * destination.
+		 * 
+		 * @param x
+		 *            X coordinate of the destination.
+		 * @param y
+		 *            Y coordinate of the destination.
+		 * @return the names of the GPS offices on the route, starting with
+		 *         this office, or null if there is no route.
+		 */
+		public String[] route(double x, double y) {
+			if (source < 0) {
+				return null;
+			}
+			int[] p = previous;
+			if (p == null) {
+				synchronized (this) {
+					if (previous == null) {
+						previous = topology.shortestPaths(source);
+					}
+					p = previous;
+				}
+			}
+			return topology.route(p, topology.closest(x, y));
 		}
 	}
 
@@ -451,7 +1941,7 @@ public class GPSOffice implements GPSOfficeInterface {
 	 * @author Chinmay Dani
 	 * 
 	 */
-	private static class GPSOfficeInfo implements Comparable<GPSOfficeInfo> {
+	static class GPSOfficeInfo implements Comparable<GPSOfficeInfo> {
 		/**
 		 * Distance between this object and another GPSOffice object.
 		 */
@@ -511,19 +2001,5 @@ public class GPSOffice implements GPSOfficeInterface {
 			return ((distance - o.distance) == 0) ? 0
 					: ((distance - o.distance) > 0.0) ? 1 : -1;
 		}
-
-		/**
-		 * Finds the distance between any location and this GPSOfficeInfo
-		 * object.
-		 * 
-		 * @param x
-		 *            X coordinate of location.
-		 * @param y
-		 *            Y coordinate of location.
-		 * @return distance between any location and this GPSOfficeInfo object.
-		 */
-		private double getDistance(double x, double y) {
-			return Math.sqrt((x - xpos) * (x - xpos) + (y - ypos) * (y - ypos));
-		}
 	}
 }
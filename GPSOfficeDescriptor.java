@@ -0,0 +1,69 @@
+import java.io.Serializable;
+
+/**
+ * Class GPSOfficeDescriptor is an immutable description of a GPS office in the
+ * Geographic Package System. It holds the name and the location of the office,
+ * which never change while the office is bound, so a client can fetch it once
+ * and cache it for the life of the binding.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class GPSOfficeDescriptor implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Name of the city where the GPS office is located.
+	 */
+	private final String name;
+	/**
+	 * GPS office's X coordinate.
+	 */
+	private final double x;
+	/**
+	 * GPS office's Y coordinate.
+	 */
+	private final double y;
+
+	/**
+	 * Constructs a new GPSOfficeDescriptor object.
+	 * 
+	 * @param name
+	 *            Name of the city where the GPS office is located.
+	 * @param x
+	 *            GPS office's X coordinate.
+	 * @param y
+	 *            GPS office's Y coordinate.
+	 */
+	public GPSOfficeDescriptor(String name, double x, double y) {
+		this.name = name;
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * Returns the name of the city where the GPS office is located.
+	 * 
+	 * @return the name of the city where the GPS office is located.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the X coordinate of the location of the GPS office.
+	 * 
+	 * @return the X coordinate of the location of the GPS office.
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 * Returns the Y coordinate of the location of the GPS office.
+	 * 
+	 * @return the Y coordinate of the location of the GPS office.
+	 */
+	public double getY() {
+		return y;
+	}
+}
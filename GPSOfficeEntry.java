@@ -0,0 +1,52 @@
+import java.io.Serializable;
+
+/**
+ * Class GPSOfficeEntry is an entry of the GPS office directory. It pairs the
+ * descriptor of a GPS office with a remote reference to that office.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class GPSOfficeEntry implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The name and location of the GPS office.
+	 */
+	private final GPSOfficeDescriptor descriptor;
+	/**
+	 * A remote reference to the GPS office.
+	 */
+	private final GPSOfficeInterface office;
+
+	/**
+	 * Constructs a new GPSOfficeEntry object.
+	 * 
+	 * @param descriptor
+	 *            The name and location of the GPS office.
+	 * @param office
+	 *            A remote reference to the GPS office.
+	 */
+	public GPSOfficeEntry(GPSOfficeDescriptor descriptor,
+			GPSOfficeInterface office) {
+		this.descriptor = descriptor;
+		this.office = office;
+	}
+
+	/**
+	 * Returns the name and location of the GPS office.
+	 * 
+	 * @return the descriptor of the GPS office.
+	 */
+	public GPSOfficeDescriptor getDescriptor() {
+		return descriptor;
+	}
+
+	/**
+	 * Returns the remote reference to the GPS office.
+	 * 
+	 * @return the remote reference to the GPS office.
+	 */
+	public GPSOfficeInterface getOffice() {
+		return office;
+	}
+}
@@ -1,37 +1,68 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import edu.rit.ds.RemoteEvent;
 
 /**
  * Class GPSOfficeevent is a type of RemoteEvent that is generated by the
  * GPSOffice object in the Geographic Package System. These events correspond to
- * the notifications of the arrival, departure, delivery and loss of a package
- * while transportation.
+ * the notifications of the arrival, departure, delivery, loss and rejection of
+ * a package while transportation.
+ * 
+ * Every event carries the time the GPS office generated it, on the clock of
+ * the office, so that the listeners can tell how long a package took
+ * however long the event itself took to reach them.
+ * 
+ * An event is written in a compact form: one status byte, the time, the name
+ * of the GPS office and the fields of the receipt. The office name is written as a shared
+ * object, so the events of one office in a batch carry it only once, and it
+ * is interned when it is read.
  * 
  * @author Chinmay Dani
  * 
  */
 public class GPSOfficeEvent extends RemoteEvent {
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 3L;
+	/**
+	 * Status of a package that has arrived at the GPS office.
+	 */
+	private static final byte ARRIVED = 0;
+	/**
+	 * Status of a package that has left the GPS office.
+	 */
+	private static final byte DEPARTED = 1;
+	/**
+	 * Status of a package that was delivered to the destination.
+	 */
+	private static final byte DELIVERED = 2;
+	/**
+	 * Status of a package that was lost.
+	 */
+	private static final byte LOST = 3;
+	/**
+	 * Status of a package that was rejected because the GPS office was full.
+	 */
+	private static final byte REJECTED = 4;
+
 	/**
 	 * A receipt object that contains the destination location and the track
 	 * number of a package.
 	 */
-	private final Receipt receipt;
+	private transient Receipt receipt;
 	/**
 	 * The GPS office that generated this event.
 	 */
-	private String currentOffice;
-	/**
-	 * A flag to indicate if the package was lost.
-	 */
-	private boolean lost = false;
+	private transient String currentOffice;
 	/**
-	 * A flag to indicate if the package was delivered to the destination.
+	 * The status of the package.
 	 */
-	private boolean isDelivered = false;
+	private transient byte status;
 	/**
-	 * A flag to indicate if the package has arrived to or left the GPS office.
+	 * Time in milliseconds when the GPS office generated this event.
 	 */
-	private boolean arrived = false;
+	private transient long time;
 
 	/**
 	 * Construct a new GPSOfficeEvent object.
@@ -49,11 +80,39 @@ public class GPSOfficeEvent extends RemoteEvent {
 	 */
 	public GPSOfficeEvent(Receipt receipt, String name, boolean lost,
 			boolean isDelivered, boolean arrived) {
+		this(receipt, name, lost ? LOST : isDelivered ? DELIVERED
+				: arrived ? ARRIVED : DEPARTED);
+	}
+
+	/**
+	 * Construct a new GPSOfficeEvent object.
+	 * 
+	 * @param receipt
+	 *            A receipt object.
+	 * @param name
+	 *            Name of the GPSOffice that generated the event.
+	 * @param status
+	 *            The status of the package.
+	 */
+	private GPSOfficeEvent(Receipt receipt, String name, byte status) {
 		this.receipt = receipt;
 		this.currentOffice = name;
-		this.lost = lost;
-		this.isDelivered = isDelivered;
-		this.arrived = arrived;
+		this.status = status;
+		this.time = System.currentTimeMillis();
+	}
+
+	/**
+	 * Construct a new GPSOfficeEvent object for a package that was rejected
+	 * by a GPS office that had no room for it.
+	 * 
+	 * @param receipt
+	 *            A receipt object.
+	 * @param name
+	 *            Name of the GPSOffice that rejected the package.
+	 * @return The new event.
+	 */
+	public static GPSOfficeEvent rejected(Receipt receipt, String name) {
+		return new GPSOfficeEvent(receipt, name, REJECTED);
 	}
 
 	/**
@@ -62,7 +121,7 @@ public class GPSOfficeEvent extends RemoteEvent {
 	 * @return packageLossStatus
 	 */
 	public boolean isLost() {
-		return lost;
+		return status == LOST;
 	}
 
 	/**
@@ -80,7 +139,7 @@ public class GPSOfficeEvent extends RemoteEvent {
 	 * @return packageDeliveryStatus
 	 */
 	public boolean isDelivered() {
-		return isDelivered;
+		return status == DELIVERED;
 	}
 
 	/**
@@ -89,7 +148,16 @@ public class GPSOfficeEvent extends RemoteEvent {
 	 * @return packageArrivalOrDepartureStatus
 	 */
 	public boolean isArrived() {
-		return arrived;
+		return status == ARRIVED;
+	}
+
+	/**
+	 * Indicates whether a package was rejected.
+	 * 
+	 * @return packageRejectionStatus
+	 */
+	public boolean isRejected() {
+		return status == REJECTED;
 	}
 
 	/**
@@ -101,4 +169,91 @@ public class GPSOfficeEvent extends RemoteEvent {
 		return receipt;
 	}
 
+	/**
+	 * Returns the time when the GPS office generated this event.
+	 * 
+	 * @return the time in milliseconds since 1970-01-01 00:00 UTC, on the
+	 *         clock of the GPS office.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Writes the fields of this event to a stream.
+	 * 
+	 * @param out
+	 *            The stream.
+	 * @throws IOException
+	 *             Thrown if an IO error occurs.
+	 */
+	void writeFields(ObjectOutputStream out) throws IOException {
+		out.writeByte(status);
+		out.writeLong(time);
+		out.writeObject(currentOffice);
+		// The listeners have no use for the route of the package.
+		receipt.writeFields(out, false);
+	}
+
+	/**
+	 * Reads the fields of this event from a stream.
+	 * 
+	 * @param in
+	 *            The stream.
+	 * @throws IOException
+	 *             Thrown if an IO error occurs or the event is malformed.
+	 * @throws ClassNotFoundException
+	 *             Thrown if the office name is not a string.
+	 */
+	void readFields(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		status = in.readByte();
+		if (status < ARRIVED || status > REJECTED) {
+			throw new InvalidObjectException("GPSOfficeEvent: Invalid status: "
+					+ status);
+		}
+		time = in.readLong();
+		Object office = in.readObject();
+		if (office != null && !(office instanceof String)) {
+			throw new InvalidObjectException(
+					"GPSOfficeEvent: Invalid office name");
+		}
+		currentOffice = office == null ? null : ((String) office).intern();
+		receipt = Receipt.read(in);
+	}
+
+	/**
+	 * Reads an event that was written by writeFields.
+	 * 
+	 * @param in
+	 *            The stream.
+	 * @return The event.
+	 * @throws IOException
+	 *             Thrown if an IO error occurs or the event is malformed.
+	 * @throws ClassNotFoundException
+	 *             Thrown if the office name is not a string.
+	 */
+	static GPSOfficeEvent read(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		GPSOfficeEvent event = new GPSOfficeEvent(null, null, ARRIVED);
+		event.readFields(in);
+		return event;
+	}
+
+	/**
+	 * Writes this event in the compact form.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		writeFields(out);
+	}
+
+	/**
+	 * Reads this event in the compact form.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		readFields(in);
+	}
 }
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.rit.ds.RemoteEvent;
+
+/**
+ * Class GPSOfficeEventBatch is a type of RemoteEvent that carries several
+ * GPSOfficeEvents generated by one GPSOffice object, in the order they were
+ * generated. It is reported to the listeners that asked for their events in
+ * batches.
+ * 
+ * A batch is written as the number of events followed by the compact form of
+ * each event, without an object header for every event.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class GPSOfficeEventBatch extends RemoteEvent {
+	private static final long serialVersionUID = 3L;
+	/**
+	 * The events, oldest first.
+	 */
+	private transient List<GPSOfficeEvent> events;
+
+	/**
+	 * Construct a new GPSOfficeEventBatch object.
+	 * 
+	 * @param events
+	 *            The events, oldest first.
+	 */
+	public GPSOfficeEventBatch(List<GPSOfficeEvent> events) {
+		this.events = Collections
+				.unmodifiableList(new ArrayList<GPSOfficeEvent>(events));
+	}
+
+	/**
+	 * Returns the events in this batch.
+	 * 
+	 * @return an unmodifiable list of the events, oldest first.
+	 */
+	public List<GPSOfficeEvent> getEvents() {
+		return events;
+	}
+
+	/**
+	 * Writes this batch in the compact form.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(events.size());
+		for (GPSOfficeEvent event : events) {
+			event.writeFields(out);
+		}
+	}
+
+	/**
+	 * Reads this batch in the compact form.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		int size = in.readInt();
+		if (size < 0) {
+			throw new InvalidObjectException(
+					"GPSOfficeEventBatch: Invalid size: " + size);
+		}
+		List<GPSOfficeEvent> list = new ArrayList<GPSOfficeEvent>(size);
+		for (int i = 0; i < size; ++i) {
+			list.add(GPSOfficeEvent.read(in));
+		}
+		events = Collections.unmodifiableList(list);
+	}
+}
@@ -40,6 +40,17 @@ public interface GPSOfficeInterface extends Remote {
 	 */
 	public String getName() throws RemoteException;
 
+	/**
+	 * Return the name and the location of the current GPSOffice object in one
+	 * call. The descriptor does not change while the object is bound, so it
+	 * may be cached by the caller.
+	 * 
+	 * @return the descriptor of the current GPSOffice object.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public GPSOfficeDescriptor getDescriptor() throws RemoteException;
+
 	/**
 	 * Assign a track number to the package, examine it and send it to the
 	 * current GPSOffice for further delivery process.
@@ -58,10 +69,34 @@ public interface GPSOfficeInterface extends Remote {
 			RemoteEventListener<GPSOfficeEvent> listener)
 			throws RemoteException;
 
+	/**
+	 * Assign track numbers to a batch of packages, examine them and send them
+	 * to the current GPSOffice for further delivery process. The notifications
+	 * for all the packages are sent to the same listener.
+	 * 
+	 * @param x
+	 *            X coordinates of the destinations
+	 * @param y
+	 *            Y coordinates of the destinations
+	 * @param listener
+	 *            A remote event listener given by the customer to receive
+	 *            notifications while the packages are being beamed.
+	 * @return the receipts of the packages, in the order of the destinations.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the coordinate arrays are not of the same length.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public Receipt[] sendPackages(double[] x, double[] y,
+			RemoteEventListener<GPSOfficeEvent> listener)
+			throws RemoteException;
+
 	/**
 	 * Calculates the GPSOffice that has the minimum distance from the
 	 * destination and forward the package to that office for further delivery
-	 * process.
+	 * process. The current GPSOffice takes custody of the package and returns
+	 * without waiting for the package to be examined or forwarded. A full
+	 * GPSOffice does not take the package, and the caller keeps it.
 	 * 
 	 * @param receipt
 	 *            A receipt object that contains the track number.
@@ -72,14 +107,65 @@ public interface GPSOfficeInterface extends Remote {
 	 * @param listener
 	 *            A remote event listener given by the customer to receive
 	 *            notifications while the package is being beamed.
+	 * @return true if the current GPSOffice took custody of the package,
+	 *         false if it is full.
 	 * @throws RemoteException
 	 *             Thrown if a remote error occurs.
 	 */
-	public void forwardPackage(Receipt receipt, final double destx,
+	public boolean forwardPackage(Receipt receipt, final double destx,
 			final double desty, RemoteEventListener<GPSOfficeEvent> listener)
 			throws RemoteException;
 
+	/**
+	 * Takes custody of a batch of packages from another GPSOffice, as if each
+	 * were forwarded with forwardPackage, in a single remote call. The
+	 * destination of a package is the one on its receipt. A full GPSOffice
+	 * takes only the packages it has room for.
+	 * 
+	 * @param batch
+	 *            The packages.
+	 * @return for every package of the batch, true if the current GPSOffice
+	 *         took custody of it, false if it is full.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public boolean[] forwardPackages(PackageBatch batch)
+			throws RemoteException;
+
 	public Lease addListener(RemoteEventListener<GPSOfficeEvent> listener)
 			throws RemoteException;
 
+	/**
+	 * Adds a listener that receives the events of the current GPSOffice
+	 * object in batches instead of one at a time. A batch is reported when it
+	 * holds maxSize events or when its oldest event has waited maxDelay
+	 * milliseconds. The events of a package keep their order.
+	 * 
+	 * @param listener
+	 *            A remote event listener that receives the batches.
+	 * @param maxDelay
+	 *            Largest time in milliseconds an event waits before its batch
+	 *            is reported.
+	 * @param maxSize
+	 *            Largest number of events in a batch.
+	 * @return the lease of the listener.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the delay is negative or the size is not positive.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public Lease addListener(RemoteEventListener<GPSOfficeEventBatch> listener,
+			long maxDelay, int maxSize) throws RemoteException;
+
+	/**
+	 * Return the load of the current GPSOffice object: the number of packages
+	 * it has custody of, its capacity and the number of packages it has
+	 * accepted and turned away.
+	 * 
+	 * @return a snapshot of the load of the current GPSOffice object.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public GPSOfficeStatus getStatus() throws RemoteException;
+
 }
@@ -0,0 +1,230 @@
+import java.io.Serializable;
+
+/**
+ * Class GPSOfficeStatus is a snapshot of the load of a GPS office in the
+ * Geographic Package System, for monitoring.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class GPSOfficeStatus implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Name of the city where the GPS office is located.
+	 */
+	private final String name;
+	/**
+	 * The node ID in the track numbers the GPS office issues.
+	 */
+	private final int nodeId;
+	/**
+	 * Number of packages the GPS office has custody of.
+	 */
+	private final int inFlight;
+	/**
+	 * Largest number of packages the GPS office takes custody of.
+	 */
+	private final int capacity;
+	/**
+	 * Number of packages the GPS office has accepted.
+	 */
+	private final long accepted;
+	/**
+	 * Number of packages the GPS office has turned away because it was full.
+	 */
+	private final long refused;
+	/**
+	 * Number of remote calls the GPS office has made to hand packages to
+	 * other offices.
+	 */
+	private final long forwardCalls;
+	/**
+	 * Number of packages the GPS office has handed to other offices.
+	 */
+	private final long forwarded;
+	/**
+	 * Number of remote calls to other offices that failed.
+	 */
+	private final long failedCalls;
+	/**
+	 * Time in milliseconds the failed calls took.
+	 */
+	private final long failedCallTime;
+	/**
+	 * Number of packages rerouted around an office that could not be reached.
+	 */
+	private final long rerouted;
+	/**
+	 * Number of packages the GPS office has lost.
+	 */
+	private final long lost;
+
+	/**
+	 * Constructs a new GPSOfficeStatus object.
+	 * 
+	 * @param name
+	 *            Name of the city where the GPS office is located.
+	 * @param nodeId
+	 *            The node ID in the track numbers the GPS office issues.
+	 * @param inFlight
+	 *            Number of packages the GPS office has custody of.
+	 * @param capacity
+	 *            Largest number of packages the GPS office takes custody of.
+	 * @param accepted
+	 *            Number of packages the GPS office has accepted.
+	 * @param refused
+	 *            Number of packages the GPS office has turned away.
+	 * @param forwardCalls
+	 *            Number of remote calls the GPS office has made to hand
+	 *            packages to other offices.
+	 * @param forwarded
+	 *            Number of packages the GPS office has handed to other
+	 *            offices.
+	 * @param failedCalls
+	 *            Number of remote calls to other offices that failed.
+	 * @param failedCallTime
+	 *            Time in milliseconds the failed calls took.
+	 * @param rerouted
+	 *            Number of packages rerouted around an office that could not
+	 *            be reached.
+	 * @param lost
+	 *            Number of packages the GPS office has lost.
+	 */
+	public GPSOfficeStatus(String name, int nodeId, int inFlight,
+			int capacity, long accepted, long refused, long forwardCalls,
+			long forwarded, long failedCalls, long failedCallTime,
+			long rerouted, long lost) {
+		this.name = name;
+		this.nodeId = nodeId;
+		this.inFlight = inFlight;
+		this.capacity = capacity;
+		this.accepted = accepted;
+		this.refused = refused;
+		this.forwardCalls = forwardCalls;
+		this.forwarded = forwarded;
+		this.failedCalls = failedCalls;
+		this.failedCallTime = failedCallTime;
+		this.rerouted = rerouted;
+		this.lost = lost;
+	}
+
+	/**
+	 * Returns the name of the city where the GPS office is located.
+	 * 
+	 * @return the name of the GPS office.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the node ID in the track numbers the GPS office issues, which
+	 * no other office running holds.
+	 * 
+	 * @return the node ID.
+	 */
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Returns the number of packages the GPS office has custody of, which
+	 * includes the packages being examined and the packages waiting to be
+	 * handed to the next office.
+	 * 
+	 * @return the number of packages in flight.
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns the largest number of packages the GPS office takes custody of.
+	 * 
+	 * @return the capacity of the GPS office.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of packages the GPS office has accepted, from
+	 * customers and from other offices.
+	 * 
+	 * @return the number of accepted packages.
+	 */
+	public long getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * Returns the number of times the GPS office turned a package away because
+	 * it was full. A package pushed back by this office may be offered again
+	 * by the upstream office.
+	 * 
+	 * @return the number of refused packages.
+	 */
+	public long getRefused() {
+		return refused;
+	}
+
+	/**
+	 * Returns the number of remote calls the GPS office has made to hand
+	 * packages to other offices. A call hands over one package, or a batch of
+	 * packages bound for the same office.
+	 * 
+	 * @return the number of forwarding calls.
+	 */
+	public long getForwardCalls() {
+		return forwardCalls;
+	}
+
+	/**
+	 * Returns the number of packages the GPS office has handed to other
+	 * offices.
+	 * 
+	 * @return the number of forwarded packages.
+	 */
+	public long getForwarded() {
+		return forwarded;
+	}
+
+	/**
+	 * Returns the number of remote calls to other offices that failed because
+	 * the office could not be reached.
+	 * 
+	 * @return the number of failed calls.
+	 */
+	public long getFailedCalls() {
+		return failedCalls;
+	}
+
+	/**
+	 * Returns the time the failed calls took, which is mostly time spent
+	 * waiting for connections and timeouts.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getFailedCallTime() {
+		return failedCallTime;
+	}
+
+	/**
+	 * Returns the number of packages the GPS office sent to another neighbor
+	 * because the one closest to the destination could not be reached.
+	 * 
+	 * @return the number of rerouted packages.
+	 */
+	public long getRerouted() {
+		return rerouted;
+	}
+
+	/**
+	 * Returns the number of packages the GPS office has reported lost.
+	 * 
+	 * @return the number of lost packages.
+	 */
+	public long getLost() {
+		return lost;
+	}
+}
@@ -0,0 +1,682 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.ds.Lease;
+import edu.rit.ds.RemoteEventListener;
+
+/**
+ * Class GPSSimulation runs many GPS offices and a stream of packages in one
+ * JVM, in virtual time. The offices are real GPSOffice objects that get their
+ * neighbors from a local GPS office directory, which stands in for the
+ * registry server, and that run on one VirtualClock: the examination of a
+ * package advances the virtual time by 3 seconds without anyone waiting. The
+ * customers' events are reported to the simulation directly, so a run of a
+ * million packages takes seconds.
+ * 
+ * The packages are sent at a fixed rate in virtual time from random offices
+ * to random destinations in the area of the offices. When they have all
+ * finished, the counts, the hops, the delivery latency, the distance
+ * travelled, the number of packages delivered by an office other than the
+ * one closest to the destination, the number of calls that handed
+ * packages between offices, and the failed calls and rerouted packages are
+ * printed.
+ * 
+ * When half of the packages have been sent, a share of the offices may crash:
+ * they fail every call and drop the packages they hold, but stay in the
+ * directory, so their neighbors find out only by calling them. Every office
+ * runs on a Host of its own, a view of the virtual clock through which the
+ * other offices also call it, so that a crash is the host going down and the
+ * office itself knows nothing of it. The dropped
+ * packages are counted as unfinished, no more packages are sent from
+ * crashed offices, and a package counts as delivered by the closest office if
+ * no office closer to the destination is still running.
+ * 
+ * Usage: java GPSSimulation <"offices"> <"packages"> <"rate"> [<"layout">
+ * [<"seed"> [<"crashed">]]] where: "offices" : number of GPS offices.
+ * "packages" : number of packages. "rate" : packages sent per virtual second.
+ * "layout" : uniform (the default) for offices spread evenly over a square,
+ * or clustered for offices gathered in dense cities. "seed" : seed of the
+ * random numbers. "crashed" : percentage of the offices that crash (0 by
+ * default).
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class GPSSimulation {
+
+	/**
+	 * Average area of the plane per office.
+	 */
+	private static final double AREA_PER_OFFICE = 100;
+	/**
+	 * Average number of offices in a city of the clustered layout.
+	 */
+	private static final int OFFICES_PER_CITY = 100;
+	/**
+	 * Virtual time in milliseconds after the last package is sent after which
+	 * the packages still in flight are given up.
+	 */
+	private static final long MAX_TRANSIT_TIME = 3600000;
+
+	/**
+	 * The virtual clock of the offices.
+	 */
+	private final VirtualClock clock = new VirtualClock();
+	/**
+	 * The local GPS office directory.
+	 */
+	private final GPSDirectory directory = new GPSDirectory(clock);
+	/**
+	 * The offices, in the order they were created.
+	 */
+	private final GPSOffice[] offices;
+	/**
+	 * The hosts of the offices, in the order of the offices.
+	 */
+	private final Host[] hosts;
+	/**
+	 * The offices that have not crashed, in the order they were created.
+	 */
+	private List<GPSOffice> live;
+	/**
+	 * A map from the name of an office to its descriptor.
+	 */
+	private final Map<String, GPSOfficeDescriptor> descriptors = new HashMap<String, GPSOfficeDescriptor>();
+	/**
+	 * The side of the square the offices are in.
+	 */
+	private final double side;
+	/**
+	 * The random numbers of the simulation.
+	 */
+	private final Random random;
+	/**
+	 * A map from the track number of a package in flight to its trip.
+	 */
+	private final Map<Long, Trip> trips = new HashMap<Long, Trip>();
+	/**
+	 * Numbers of packages delivered, lost and rejected, and of events.
+	 */
+	private long delivered, lost, rejected, events;
+	/**
+	 * Number of packages delivered by an office other than the one closest to
+	 * the destination that has not crashed.
+	 */
+	private long misdelivered;
+	/**
+	 * Number of packages that were given a route by the office that accepted
+	 * them.
+	 */
+	private long routed;
+	/**
+	 * The largest number of packages in flight at once.
+	 */
+	private int peakInFlight;
+	/**
+	 * Names of the offices that crashed.
+	 */
+	private final Set<String> crashed = new HashSet<String>();
+	/**
+	 * Sums of the distances travelled by the delivered packages and of the
+	 * ratios of those distances to the straight line distances.
+	 */
+	private double travelled, stretch;
+	/**
+	 * Number of delivered packages whose stretch is counted.
+	 */
+	private long stretched;
+	/**
+	 * Hops of the delivered packages.
+	 */
+	private final LatencyHistogram hops = new LatencyHistogram();
+	/**
+	 * Delivery latencies of the delivered packages in virtual milliseconds.
+	 */
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Constructs a new GPSSimulation object and places the offices.
+	 * 
+	 * @param count
+	 *            Number of GPS offices.
+	 * @param clustered
+	 *            True for the clustered layout, false for the uniform one.
+	 * @param random
+	 *            The random numbers of the simulation.
+	 * @throws RemoteException
+	 *             Thrown if the directory throws it.
+	 */
+	public GPSSimulation(int count, boolean clustered, Random random)
+			throws RemoteException {
+		this.random = random;
+		side = Math.sqrt(count * AREA_PER_OFFICE);
+		offices = new GPSOffice[count];
+		hosts = new Host[count];
+		TrackNumberGenerator trackNumbers = new TrackNumberGenerator(0);
+		int cities = Math.max(1, count / OFFICES_PER_CITY);
+		double[] cityX = new double[cities], cityY = new double[cities];
+		for (int i = 0; i < cities; ++i) {
+			cityX[i] = random.nextDouble() * side;
+			cityY[i] = random.nextDouble() * side;
+		}
+		// A city is packed 25 times as densely as the uniform layout.
+		double spread = Math.sqrt(OFFICES_PER_CITY * AREA_PER_OFFICE) / 5;
+		for (int i = 0; i < count; ++i) {
+			double x, y;
+			if (clustered) {
+				int city = random.nextInt(cities);
+				x = cityX[city] + random.nextGaussian() * spread;
+				y = cityY[city] + random.nextGaussian() * spread;
+			} else {
+				x = random.nextDouble() * side;
+				y = random.nextDouble() * side;
+			}
+			String name = "Office" + i;
+			hosts[i] = new Host();
+			offices[i] = new GPSOffice(name, x, y, directory, hosts[i],
+					clock, trackNumbers, hosts[i]);
+			hosts[i].office = offices[i];
+			descriptors.put(name, new GPSOfficeDescriptor(name, x, y));
+		}
+		live = Arrays.asList(offices);
+		// Push the neighbor sets of the offices.
+		clock.runUntil(0);
+	}
+
+	/**
+	 * Sends the packages and runs the offices until they have all finished.
+	 * 
+	 * @param packages
+	 *            Number of packages.
+	 * @param rate
+	 *            Packages sent per virtual second.
+	 * @param crashed
+	 *            Percentage of the offices that crash when half of the
+	 *            packages have been sent.
+	 */
+	public void run(final int packages, final double rate,
+			final double crashed) {
+		final RemoteEventListener<GPSOfficeEvent> listener = new RemoteEventListener<GPSOfficeEvent>() {
+			public void report(long seq, GPSOfficeEvent event) {
+				handle(event);
+			}
+		};
+		if (crashed > 0) {
+			clock.schedule(new Runnable() {
+				@Override
+				public void run() {
+					crash(crashed);
+				}
+			}, (long) (packages / 2 * 1000.0 / rate), TimeUnit.MILLISECONDS);
+		}
+		clock.execute(new Runnable() {
+			private int sent;
+
+			@Override
+			public void run() {
+				long now = clock.now();
+				while (sent < packages && (long) (sent * 1000 / rate) <= now) {
+					send(listener);
+					++sent;
+				}
+				if (sent < packages) {
+					clock.schedule(this, (long) (sent * 1000 / rate) - now,
+							TimeUnit.MILLISECONDS);
+				}
+			}
+		});
+		long deadline = (long) (packages * 1000 / rate) + MAX_TRANSIT_TIME;
+		while (delivered + lost + rejected < packages
+				&& clock.now() <= deadline && clock.runNext()) {
+		}
+	}
+
+	/**
+	 * Crashes a random share of the offices.
+	 * 
+	 * @param percent
+	 *            Percentage of the offices that crash.
+	 */
+	private void crash(double percent) {
+		List<GPSOffice> shuffled = new ArrayList<GPSOffice>(live);
+		Collections.shuffle(shuffled, random);
+		int count = Math.min((int) Math.round(offices.length * percent / 100),
+				shuffled.size() - 1);
+		for (GPSOffice office : shuffled.subList(0, count)) {
+			hosts[Arrays.asList(offices).indexOf(office)].down = true;
+			try {
+				crashed.add(office.getStatus().getName());
+			} catch (RemoteException e) {
+			}
+		}
+		live = new ArrayList<GPSOffice>(shuffled.subList(count,
+				shuffled.size()));
+	}
+
+	/**
+	 * Sends a package from a random office to a random destination.
+	 */
+	private void send(RemoteEventListener<GPSOfficeEvent> listener) {
+		GPSOffice office = live.get(random.nextInt(live.size()));
+		double x = random.nextDouble() * side;
+		double y = random.nextDouble() * side;
+		try {
+			office.sendPackages(new double[] { x }, new double[] { y },
+					listener);
+		} catch (RemoteException e) {
+			++lost;
+		}
+	}
+
+	/**
+	 * Follows a package from one event to the next.
+	 */
+	private void handle(GPSOfficeEvent event) {
+		++events;
+		Long trackNumber = event.getReceipt().getTrackNumber();
+		GPSOfficeDescriptor office = descriptors.get(event
+				.getCurrentOffice());
+		Trip trip = trips.get(trackNumber);
+		if (event.isArrived()) {
+			if (trip == null) {
+				trips.put(trackNumber, new Trip(clock.now(), office));
+				if (event.getReceipt().getRoute() != null) {
+					++routed;
+				}
+				peakInFlight = Math.max(peakInFlight, trips.size());
+			} else {
+				trip.travelled += distance(trip.last, office.getX(),
+						office.getY());
+				trip.last = office;
+				++trip.hops;
+			}
+		} else if (event.isDelivered()) {
+			trips.remove(trackNumber);
+			++delivered;
+			Receipt receipt = event.getReceipt();
+			hops.record(trip.hops);
+			latency.record(clock.now() - trip.start);
+			travelled += trip.travelled;
+			double direct = distance(trip.first, office.getX(), office.getY());
+			if (direct > 0) {
+				stretch += trip.travelled / direct;
+				++stretched;
+			}
+			if (!closest(receipt.getX(), receipt.getY()).equals(
+					office.getName())) {
+				++misdelivered;
+			}
+		} else if (event.isLost()) {
+			trips.remove(trackNumber);
+			++lost;
+		} else if (event.isRejected()) {
+			trips.remove(trackNumber);
+			++rejected;
+		}
+	}
+
+	/**
+	 * Returns the name of the office closest to a location among the offices
+	 * that have not crashed.
+	 */
+	private String closest(double x, double y) {
+		try {
+			for (int k = 1;; k *= 2) {
+				List<GPSOfficeEntry> nearest = directory.nearest(x, y, k);
+				for (GPSOfficeEntry entry : nearest) {
+					String name = entry.getDescriptor().getName();
+					if (!crashed.contains(name)) {
+						return name;
+					}
+				}
+				if (nearest.size() < k) {
+					return "";
+				}
+			}
+		} catch (RemoteException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Prints the results of the simulation.
+	 */
+	private void report(int packages, long wallTime) {
+		System.out.println("Simulated " + offices.length + " offices and "
+				+ packages + " packages in " + wallTime + " ms ("
+				+ clock.now() / 1000 + " s of virtual time, "
+				+ Math.round(events * 1000.0 / Math.max(wallTime, 1))
+				+ " events/s)");
+		System.out.println("Delivered " + delivered + ", lost " + lost
+				+ ", rejected " + rejected + ", unfinished "
+				+ (packages - delivered - lost - rejected)
+				+ ", peak in flight " + peakInFlight);
+		System.out.println("Hops: " + hops.summary());
+		System.out.println("Delivery latency ms: " + latency.summary());
+		System.out.println(String.format(
+				"Distance travelled: mean %.1f, stretch %.3f",
+				travelled / Math.max(delivered, 1),
+				stretch / Math.max(stretched, 1)));
+		System.out.println(String.format(
+				"Delivered away from the closest office: %d (%.2f%%)",
+				misdelivered, 100.0 * misdelivered / Math.max(delivered, 1)));
+		System.out.println(String.format("Source routed: %d (%.2f%%)",
+				routed, 100.0 * routed / Math.max(packages, 1)));
+		long calls = 0, forwarded = 0, failed = 0, failedTime = 0, rerouted = 0;
+		for (GPSOffice office : offices) {
+			try {
+				GPSOfficeStatus status = office.getStatus();
+				calls += status.getForwardCalls();
+				forwarded += status.getForwarded();
+				failed += status.getFailedCalls();
+				failedTime += status.getFailedCallTime();
+				rerouted += status.getRerouted();
+			} catch (RemoteException e) {
+			}
+		}
+		System.out.println(String.format(
+				"Forwarding calls: %d for %d packages (%.2f per call)",
+				calls, forwarded, (double) forwarded / Math.max(calls, 1)));
+		System.out.println(String.format("Crashed offices: %d, failed calls: "
+				+ "%d (%d ms), rerouted %d, lost %.2f%%", crashed.size(), failed,
+				failedTime, rerouted, 100.0 * lost / Math.max(packages, 1)));
+	}
+
+	/**
+	 * Returns the distance between an office and a location.
+	 */
+	private static double distance(GPSOfficeDescriptor d, double x, double y) {
+		return GPSOffice.distance(d.getX(), d.getY(), x, y);
+	}
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 *            command line arguments.
+	 * @throws IllegalArgumentException
+	 *             Thrown if there is a discrepancy in the command line
+	 *             arguments.
+	 * @throws RemoteException
+	 *             Thrown if the directory throws it.
+	 */
+	public static void main(String[] args) throws RemoteException {
+		if (args.length < 3 || args.length > 6) {
+			System.out.println("Usage: java GPSSimulation <offices> "
+					+ "<packages> <rate> [<layout> [<seed> [<crashed>]]]");
+			System.exit(0);
+		}
+		int count, packages;
+		double rate, crashed = 0;
+		long seed = 1;
+		try {
+			count = Integer.parseInt(args[0]);
+			packages = Integer.parseInt(args[1]);
+			rate = Double.parseDouble(args[2]);
+			if (args.length >= 5) {
+				seed = Long.parseLong(args[4]);
+			}
+			if (args.length == 6) {
+				crashed = Double.parseDouble(args[5]);
+			}
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("GPSSimulation: Invalid "
+					+ "argument: " + nfe.getMessage());
+		}
+		String layout = args.length > 3 ? args[3] : "uniform";
+		if (!layout.equals("uniform") && !layout.equals("clustered")) {
+			throw new IllegalArgumentException(
+					"GPSSimulation: Invalid <layout>: " + layout);
+		}
+		if (count < 1 || packages < 0 || !(rate > 0) || !(crashed >= 0)
+				|| crashed > 100) {
+			throw new IllegalArgumentException(
+					"GPSSimulation: Invalid arguments");
+		}
+
+		long start = System.currentTimeMillis();
+		GPSSimulation simulation = new GPSSimulation(count,
+				layout.equals("clustered"), new Random(seed));
+		System.out.println("Placed " + count + " " + layout + " offices in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		start = System.currentTimeMillis();
+		simulation.run(packages, rate, crashed);
+		simulation.report(packages, System.currentTimeMillis() - start);
+		System.exit(0);
+	}
+
+	/**
+	 * Class Host is the machine a GPS office of the simulation runs on. It
+	 * runs the tasks of the office on the virtual clock and passes the calls
+	 * of the other offices on to it. When the host goes down, the tasks of
+	 * the office are dropped, so the packages it holds go no further, and
+	 * every call fails, while the office stays in the directory.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private class Host extends AbstractExecutorService implements
+			ScheduledExecutorService, GPSOfficeInterface {
+		/**
+		 * The office on this host.
+		 */
+		public GPSOffice office;
+		/**
+		 * A flag to indicate if the host is down.
+		 */
+		public volatile boolean down;
+
+		/**
+		 * Returns a task that runs only if the host is up.
+		 */
+		private Runnable guard(final Runnable command) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					if (!down) {
+						command.run();
+					}
+				}
+			};
+		}
+
+		/**
+		 * Throws the exception of a call to a host that is down.
+		 */
+		private void check() throws RemoteException {
+			if (down) {
+				throw new RemoteException("GPSSimulation: "
+						+ office.getName() + " is down");
+			}
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			clock.execute(guard(command));
+		}
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay,
+				TimeUnit unit) {
+			return clock.schedule(guard(command), delay, unit);
+		}
+
+		@Override
+		public <V> ScheduledFuture<V> schedule(final Callable<V> callable,
+				long delay, TimeUnit unit) {
+			return clock.schedule(new Callable<V>() {
+				@Override
+				public V call() throws Exception {
+					return down ? null : callable.call();
+				}
+			}, delay, unit);
+		}
+
+		@Override
+		public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+				long initialDelay, long period, TimeUnit unit) {
+			return clock.scheduleAtFixedRate(guard(command), initialDelay,
+					period, unit);
+		}
+
+		@Override
+		public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+				long initialDelay, long delay, TimeUnit unit) {
+			return clock.scheduleWithFixedDelay(guard(command), initialDelay,
+					delay, unit);
+		}
+
+		@Override
+		public void shutdown() {
+			down = true;
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			down = true;
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return down;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return down;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return down;
+		}
+
+		@Override
+		public double getX() throws RemoteException {
+			check();
+			return office.getX();
+		}
+
+		@Override
+		public double getY() throws RemoteException {
+			check();
+			return office.getY();
+		}
+
+		@Override
+		public String getName() throws RemoteException {
+			check();
+			return office.getName();
+		}
+
+		@Override
+		public GPSOfficeDescriptor getDescriptor() throws RemoteException {
+			check();
+			return office.getDescriptor();
+		}
+
+		@Override
+		public void sendPackage(double x, double y,
+				RemoteEventListener<GPSOfficeEvent> listener)
+				throws RemoteException {
+			check();
+			office.sendPackage(x, y, listener);
+		}
+
+		@Override
+		public Receipt[] sendPackages(double[] x, double[] y,
+				RemoteEventListener<GPSOfficeEvent> listener)
+				throws RemoteException {
+			check();
+			return office.sendPackages(x, y, listener);
+		}
+
+		@Override
+		public boolean forwardPackage(Receipt receipt, double destx,
+				double desty, RemoteEventListener<GPSOfficeEvent> listener)
+				throws RemoteException {
+			check();
+			return office.forwardPackage(receipt, destx, desty, listener);
+		}
+
+		@Override
+		public boolean[] forwardPackages(PackageBatch batch)
+				throws RemoteException {
+			check();
+			return office.forwardPackages(batch);
+		}
+
+		@Override
+		public Lease addListener(RemoteEventListener<GPSOfficeEvent> listener)
+				throws RemoteException {
+			check();
+			return office.addListener(listener);
+		}
+
+		@Override
+		public Lease addListener(
+				RemoteEventListener<GPSOfficeEventBatch> listener,
+				long maxDelay, int maxSize) throws RemoteException {
+			check();
+			return office.addListener(listener, maxDelay, maxSize);
+		}
+
+		@Override
+		public GPSOfficeStatus getStatus() throws RemoteException {
+			check();
+			return office.getStatus();
+		}
+	}
+
+	/**
+	 * Class Trip is the path of a package in flight.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Trip {
+		/**
+		 * Virtual time when the package arrived at its first office.
+		 */
+		public final long start;
+		/**
+		 * The first office of the package.
+		 */
+		public final GPSOfficeDescriptor first;
+		/**
+		 * The office the package last arrived at.
+		 */
+		public GPSOfficeDescriptor last;
+		/**
+		 * Number of hops so far.
+		 */
+		public int hops;
+		/**
+		 * Distance travelled so far.
+		 */
+		public double travelled;
+
+		/**
+		 * Construct a new Trip object.
+		 */
+		public Trip(long start, GPSOfficeDescriptor first) {
+			this.start = start;
+			this.first = first;
+			this.last = first;
+		}
+	}
+}
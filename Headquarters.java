@@ -1,8 +1,14 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import edu.rit.ds.Lease;
 import edu.rit.ds.RemoteEventListener;
-import edu.rit.ds.registry.NotBoundException;
 import edu.rit.ds.registry.RegistryEvent;
 import edu.rit.ds.registry.RegistryEventFilter;
 import edu.rit.ds.registry.RegistryEventListener;
@@ -13,11 +19,69 @@ import edu.rit.ds.registry.RegistryProxy;
  * GPSOffice event in a Geographic Package System and prints the notification
  * messages on the console.
  * 
+ * Usage: java Headquarters <"host"> <"port">
+ * 
+ * The events are received one remote call at a time unless the
+ * "gps.hq.batchDelay" system property is set to a time in milliseconds; then
+ * every office sends its events in batches of up to "gps.hq.batchSize" events
+ * (100 by default) that are held for at most that time.
+ * 
+ * The Headquarters keeps the current state of every package it has heard of
+ * and answers these commands typed on the console:
+ * 
+ * find <"tracknumber"> : the state of one package. range <"from"> <"to">
+ * [<"limit">] : the states of the packages with track numbers from "from" to
+ * "to", at most "limit" of them (20 by default). stats : the number of
+ * packages and the memory they take. metrics : the package rates and latency
+ * histograms, overall and for every GPS office.
+ * 
+ * The metrics are also printed every "gps.hq.metricsInterval" milliseconds
+ * (10000 by default, 0 to print them only when asked).
+ * 
+ * The Headquarters subscribes to "gps.hq.subscribeThreads" offices at a time
+ * (16 by default). An office that cannot be subscribed to is tried again in
+ * the background.
+ * 
+ * If the "gps.hq.journal" system property names a directory, every event is
+ * also written to an event journal in that directory, and the journal is
+ * replayed at startup to restore the states of the packages.
+ * 
  * @author Chinmay Dani
  * 
  */
 public class Headquarters {
 
+	/**
+	 * Largest time in milliseconds an office holds an event before sending
+	 * it in a batch, or 0 to receive the events one at a time.
+	 */
+	private static final long BATCH_DELAY = Long.getLong("gps.hq.batchDelay",
+			0);
+	/**
+	 * Largest number of events in a batch.
+	 */
+	private static final int BATCH_SIZE = Integer.getInteger(
+			"gps.hq.batchSize", 100);
+	/**
+	 * Default largest number of packages printed by a range command.
+	 */
+	private static final int RANGE_LIMIT = 20;
+	/**
+	 * The directory of the event journal, or null if there is no journal.
+	 */
+	private static final String JOURNAL = System.getProperty("gps.hq.journal");
+	/**
+	 * Time in milliseconds between two prints of the metrics, or 0 to print
+	 * them only when asked.
+	 */
+	private static final long METRICS_INTERVAL = Long.getLong(
+			"gps.hq.metricsInterval", 10000);
+	/**
+	 * Largest number of offices subscribed to at a time.
+	 */
+	private static final int SUBSCRIBE_THREADS = Integer.getInteger(
+			"gps.hq.subscribeThreads", 16);
+
 	/**
 	 * Name of the computer where the Registry Server is running.
 	 */
@@ -35,11 +99,41 @@ public class Headquarters {
 	 * registry server.
 	 */
 	private static RegistryEventListener registryListener;
+	/**
+	 * A registry event listener reference to listen to unbind events from a
+	 * registry server.
+	 */
+	private static RegistryEventListener unboundListener;
 	/**
 	 * A registry event filter to listen only to the events of
 	 * GPSOfficeInterface objects.
 	 */
 	private static RegistryEventFilter registryFilter;
+	/**
+	 * The subscriptions to the GPS offices.
+	 */
+	private static OfficeSubscriptions subscriptions;
+	/**
+	 * A listener that receives the events in batches, or null if the events
+	 * are received one at a time.
+	 */
+	private static PackageBatchListener batchListener;
+	/**
+	 * The current states of the packages.
+	 */
+	private static PackageStateStore packages = new PackageStateStore();
+	/**
+	 * The event journal, or null if there is no journal.
+	 */
+	private static EventJournal journal;
+	/**
+	 * The package rates and latency histograms.
+	 */
+	private static PackageMetrics metrics = new PackageMetrics();
+	/**
+	 * The log that prints the events without holding up the listener.
+	 */
+	private static AsyncLog log = new AsyncLog(System.out);
 
 	/**
 	 * The main method.
@@ -64,6 +158,12 @@ public class Headquarters {
 					+ args[1]);
 		}
 
+		// Restore the states of the packages from the event journal and
+		// append the new events to it.
+		if (JOURNAL != null) {
+			openJournal(new File(JOURNAL));
+		}
+
 		// Create a PackageListener object to listen to GPSOfficeEvent remote
 		// events.
 		final PackageEventListener packageListener = new PackageEventListener();
@@ -76,17 +176,51 @@ public class Headquarters {
 			System.exit(0);
 		}
 
-		// Creates a registry event listener.
+		try {
+			UnicastRemoteObject.exportObject(packageListener, 0);
+			if (BATCH_DELAY > 0) {
+				batchListener = new PackageBatchListener(packageListener);
+				UnicastRemoteObject.exportObject(batchListener, 0);
+			}
+		} catch (RemoteException e) {
+			System.out.println("Exception caught while creating a listener.");
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		// Create the subscriptions that add the listener to the GPS offices.
+		subscriptions = new OfficeSubscriptions(registry, SUBSCRIBE_THREADS,
+				new OfficeSubscriptions.Subscriber() {
+					public Lease subscribe(GPSOfficeInterface office)
+							throws RemoteException {
+						if (batchListener != null) {
+							return office.addListener(batchListener,
+									BATCH_DELAY, BATCH_SIZE);
+						}
+						return office.addListener(packageListener);
+					}
+				}, log);
+
+		// Creates the registry event listeners.
 		registryListener = new RegistryEventListener() {
 
 			@Override
 			public void report(long arg0, RegistryEvent event)
 					throws RemoteException {
-				listen(event.objectName(), packageListener);
+				subscriptions.subscribe(event.objectName());
+			}
+		};
+		unboundListener = new RegistryEventListener() {
+
+			@Override
+			public void report(long arg0, RegistryEvent event)
+					throws RemoteException {
+				subscriptions.forget(event.objectName());
 			}
 		};
 		try {
 			UnicastRemoteObject.exportObject(registryListener, 0);
+			UnicastRemoteObject.exportObject(unboundListener, 0);
 		} catch (RemoteException e) {
 			System.out.println("Exception caught while creating a listener.");
 			e.printStackTrace();
@@ -98,6 +232,9 @@ public class Headquarters {
 				"GPSOfficeInterface").reportBound();
 		try {
 			registry.addEventListener(registryListener, registryFilter);
+			registry.addEventListener(unboundListener,
+					new RegistryEventFilter().reportType("GPSOfficeInterface")
+							.reportUnbound());
 		} catch (RemoteException e) {
 			System.out.println("Exception caught while adding a listener"
 					+ " on the registry server.");
@@ -105,20 +242,10 @@ public class Headquarters {
 			System.exit(0);
 		}
 
+		// Subscribe to each remote object of type GPSOfficeInterface, a few
+		// at a time.
 		try {
-			UnicastRemoteObject.exportObject(packageListener, 0);
-		} catch (RemoteException e) {
-			System.out.println("Exception caught while creating a listener.");
-			e.printStackTrace();
-			System.exit(0);
-		}
-
-		// Lookup each remote object of type GPSOfficeInterface and add the
-		// remote event listener to listen to their events.
-		try {
-			for (String office : registry.list("GPSOfficeInterface")) {
-				listen(office, packageListener);
-			}
+			subscriptions.subscribeAll(registry.list("GPSOfficeInterface"));
 		} catch (RemoteException e) {
 			System.out.println("Error while retrieving bound names "
 					+ "list from registry server.");
@@ -126,33 +253,110 @@ public class Headquarters {
 			System.exit(0);
 		}
 
+		// Print the metrics periodically.
+		if (METRICS_INTERVAL > 0) {
+			GPSExecutors.newScheduler().scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					metrics.print(System.out);
+				}
+			}, METRICS_INTERVAL, METRICS_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+
+		readCommands();
 	}
 
 	/**
-	 * Adds a listener to the remote event generator of a GPSOfficeInterface
-	 * object.
+	 * Replays the event journal into the package states and opens it for
+	 * appending. The journal is closed when the program exits.
 	 * 
-	 * @param office
-	 *            the name of the remote object.
-	 * @param packageListener
-	 *            the listener that is added.
+	 * @param directory
+	 *            the directory of the journal.
 	 */
-	private static void listen(String office,
-			PackageEventListener packageListener) {
+	private static void openJournal(File directory) {
 		try {
-			GPSOfficeInterface gps = (GPSOfficeInterface) registry
-					.lookup(office);
-			gps.addListener(packageListener);
-		} catch (RemoteException e) {
-			System.out.println("Cannot connect to the remote object.");
-			e.printStackTrace();
-			System.exit(0);
-		} catch (NotBoundException e) {
-			System.out.println("Object is not bound to the registry server.");
+			long start = System.currentTimeMillis();
+			long count = EventJournal.replay(directory,
+					new EventJournal.Handler() {
+						public void event(GPSOfficeEvent event, long time) {
+							packages.record(event, time);
+						}
+					});
+			System.out.println("Replayed " + count + " events of "
+					+ packages.size() + " packages from the journal in "
+					+ (System.currentTimeMillis() - start) + " ms");
+			journal = new EventJournal(directory,
+					EventJournal.DEFAULT_SEGMENT_SIZE);
+		} catch (IOException e) {
+			System.out.println("Cannot open the event journal in "
+					+ directory);
 			e.printStackTrace();
 			System.exit(0);
 		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					journal.close();
+				} catch (InterruptedException e) {
+				}
+				if (journal.getDropped() > 0) {
+					System.out.println(journal.getDropped()
+							+ " events were not journaled because the "
+							+ "journal failed or was closed");
+				}
+			}
+		});
+	}
 
+	/**
+	 * Reads the query commands from the console and prints the answers until
+	 * the console is closed.
+	 */
+	private static void readCommands() {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				System.in));
+		String line;
+		try {
+			while ((line = in.readLine()) != null) {
+				String[] words = line.trim().split("\\s+");
+				try {
+					if (words[0].equals("find") && words.length == 2) {
+						PackageState state = packages.lookup(Long
+								.parseLong(words[1]));
+						System.out.println(state == null ? "Package number "
+								+ words[1] + " is not known" : state);
+					} else if (words[0].equals("range")
+							&& (words.length == 3 || words.length == 4)) {
+						int limit = words.length == 4 ? Integer
+								.parseInt(words[3]) : RANGE_LIMIT;
+						for (PackageState state : packages.range(
+								Long.parseLong(words[1]),
+								Long.parseLong(words[2]), limit)) {
+							System.out.println(state);
+						}
+					} else if (words[0].equals("stats") && words.length == 1) {
+						int size = packages.size();
+						long memory = packages.memory();
+						System.out.println(size + " packages in "
+								+ memory / 1024 + " KB ("
+								+ (size == 0 ? 0 : memory / size)
+								+ " bytes each, "
+								+ PackageStateStore.BYTES_PER_SLOT
+								+ " bytes per slot)");
+					} else if (words[0].equals("metrics") && words.length == 1) {
+						metrics.print(System.out);
+					} else if (words[0].length() > 0) {
+						System.out.println("Commands: find <tracknumber>, "
+								+ "range <from> <to> [<limit>], stats, "
+								+ "metrics");
+					}
+				} catch (NumberFormatException nfe) {
+					System.out.println("Invalid number: " + line);
+				}
+			}
+		} catch (IOException e) {
+		}
 	}
 
 	/**
@@ -166,43 +370,141 @@ public class Headquarters {
 			RemoteEventListener<GPSOfficeEvent> {
 
 		/**
-		 * Performs actions after receiving events.
+		 * Largest number of received events that wait to be handled.
+		 */
+		private static final int EVENT_QUEUE_CAPACITY = 10000;
+		/**
+		 * A thread pool that handles the received events one at a time, so
+		 * that the remote call that reports an event returns at once. When
+		 * EVENT_QUEUE_CAPACITY events are waiting, the call waits for room
+		 * instead, which slows down the GPS offices reporting the events.
+		 */
+		private ExecutorService events = GPSExecutors
+				.newSerialExecutor(EVENT_QUEUE_CAPACITY);
+
+		/**
+		 * Hands a received event to the thread pool.
 		 */
 		@Override
-		public void report(long seq, GPSOfficeEvent event)
+		public void report(long seq, final GPSOfficeEvent event)
 				throws RemoteException {
+			events.execute(new Runnable() {
+				@Override
+				public void run() {
+					handle(event);
+				}
+			});
+		}
+
+		/**
+		 * Performs actions after receiving events.
+		 * 
+		 * @param event
+		 *            the received event.
+		 */
+		private void handle(GPSOfficeEvent event) {
 			if (event != null) {
+				// The time the office generated the event, which does not
+				// count the time it waited in a batch or in the queue here.
+				long time = event.getTime();
+				metrics.record(event, packages.lookup(event.getReceipt()
+						.getTrackNumber()), time);
+				packages.record(event, time);
+				if (journal != null) {
+					journal.append(event, time);
+				}
+
+				// If the package is rejected by a full office.
+				if (event.isRejected()) {
+					print(event, " rejected by ");
+				}
 				// If the package is lost by an office.
-				if (event.isLost()) {
-					System.out.println("Package number "
-							+ event.getReceipt().getTrackNumber() + " lost by "
-							+ event.getCurrentOffice() + " office");
+				else if (event.isLost()) {
+					print(event, " lost by ");
 				}
 				// If the package is delivered by an office.
 				else if (event.isDelivered()) {
-					System.out.println("Package number "
-							+ event.getReceipt().getTrackNumber()
-							+ " delivered from " + event.getCurrentOffice()
-							+ " office to (" + event.getReceipt().getX() + ","
-							+ event.getReceipt().getY() + ")");
+					AsyncLog.Line line = log.claim();
+					if (line != null) {
+						line.append("Package number ")
+								.append(event.getReceipt().getTrackNumber())
+								.append(" delivered from ")
+								.append(event.getCurrentOffice())
+								.append(" office to (")
+								.append(event.getReceipt().getX()).append(",")
+								.append(event.getReceipt().getY()).append(")")
+								.publish();
+					}
 				}
 				// If the package arrives at an office or departs from an
 				// office.
 				else {
 					if (event.isArrived()) {
-						System.out.println("Package number "
-								+ event.getReceipt().getTrackNumber()
-								+ " arrived at " + event.getCurrentOffice()
-								+ " office");
+						print(event, " arrived at ");
 					} else {
-						System.out.println("Package number "
-								+ event.getReceipt().getTrackNumber()
-								+ " departed from " + event.getCurrentOffice()
-								+ " office");
+						print(event, " departed from ");
 					}
 				}
 			}
 		}
 
+		/**
+		 * Logs a line about the package of an event and the office that
+		 * generated it.
+		 * 
+		 * @param event
+		 *            the received event.
+		 * @param what
+		 *            the text between the track number and the office name.
+		 */
+		private void print(GPSOfficeEvent event, String what) {
+			AsyncLog.Line line = log.claim();
+			if (line != null) {
+				line.append("Package number ")
+						.append(event.getReceipt().getTrackNumber())
+						.append(what).append(event.getCurrentOffice())
+						.append(" office").publish();
+			}
+		}
+
+	}
+
+	/**
+	 * Class PackageBatchListener is a RemoteEventListener encapsulation that
+	 * listens to batches of GPSOfficeEvents and passes the events in each
+	 * batch on to a PackageEventListener in order.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class PackageBatchListener implements
+			RemoteEventListener<GPSOfficeEventBatch> {
+
+		/**
+		 * The listener that handles the events.
+		 */
+		private PackageEventListener packageListener;
+
+		/**
+		 * Construct a new PackageBatchListener object.
+		 * 
+		 * @param packageListener
+		 *            the listener that handles the events.
+		 */
+		public PackageBatchListener(PackageEventListener packageListener) {
+			this.packageListener = packageListener;
+		}
+
+		/**
+		 * Passes the events of a received batch on to the listener.
+		 */
+		@Override
+		public void report(long seq, GPSOfficeEventBatch batch)
+				throws RemoteException {
+			for (GPSOfficeEvent event : batch.getEvents()) {
+				packageListener.report(seq, event);
+			}
+		}
+
 	}
 }
@@ -0,0 +1,159 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class LatencyHistogram counts latencies in buckets whose width grows with
+ * the latency, so that every recorded value is kept to within about 3% of
+ * its size, from 0 up to Long.MAX_VALUE. Values below 32 have a bucket each;
+ * every power of 2 above that is split into 32 buckets of equal width.
+ * 
+ * Recording a value is lock free and may be done by many threads at once. A
+ * percentile is computed from the counts as they are when it is asked for.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of bits of a value that pick the bucket within its power of 2.
+	 */
+	private static final int SUB_BITS = 5;
+	/**
+	 * Number of buckets in every power of 2.
+	 */
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/**
+	 * Number of buckets.
+	 */
+	private static final int BUCKETS = SUB_COUNT * (64 - SUB_BITS);
+
+	/**
+	 * The number of values in every bucket.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	/**
+	 * The number of values.
+	 */
+	private final AtomicLong count = new AtomicLong();
+	/**
+	 * The sum of the values.
+	 */
+	private final AtomicLong sum = new AtomicLong();
+	/**
+	 * The largest value.
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value. A negative value is recorded as 0.
+	 * 
+	 * @param value
+	 *            The value.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while ((m = max.get()) < value && !max.compareAndSet(m, value)) {
+		}
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 * 
+	 * @return the number of values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded.
+	 * 
+	 * @return the mean, or 0 if there are no values.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the largest value recorded.
+	 * 
+	 * @return the largest value, or 0 if there are no values.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns a percentile of the values recorded: the largest value of the
+	 * bucket that holds it, or the largest value recorded if that is smaller.
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100.
+	 * @return the value at the percentile, or 0 if there are no values.
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1,
+				(long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highest(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns a summary of the values: the count, the mean and the 50th, 90th,
+	 * 99th and 99.9th percentiles and the largest value.
+	 * 
+	 * @return the summary.
+	 */
+	public String summary() {
+		return "n=" + getCount() + " mean=" + Math.round(getMean()) + " p50="
+				+ getPercentile(50) + " p90=" + getPercentile(90) + " p99="
+				+ getPercentile(99) + " p99.9=" + getPercentile(99.9)
+				+ " max=" + getMax();
+	}
+
+	/**
+	 * Returns the bucket of a value that is not negative.
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return SUB_COUNT * shift + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the largest value of a bucket.
+	 */
+	private static long highest(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = bucket / SUB_COUNT - 1;
+		long sub = bucket - SUB_COUNT * shift;
+		return ((sub + 1) << shift) - 1;
+	}
+}
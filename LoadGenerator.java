@@ -0,0 +1,315 @@
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.rit.ds.RemoteEventListener;
+import edu.rit.ds.registry.NotBoundException;
+import edu.rit.ds.registry.RegistryProxy;
+
+/**
+ * Class LoadGenerator is the load mode of the Customer. It sends a number of
+ * packages from one process to one or more starting GPS offices, taking turns
+ * among them, at a target rate and with at most a given number of packages in
+ * flight. The destinations are spread at random over a rectangle. The events
+ * are matched to the packages by track number, and when every package is
+ * delivered, lost or rejected the throughput, the counts and the delivery
+ * latency percentiles are printed.
+ * 
+ * Usage: java Customer <"host"> <"port"> -load <"packages"> <"rate">
+ * <"concurrency"> <"names"> <"X1"> <"Y1"> <"X2"> <"Y2"> where: "packages" :
+ * number of packages to send. "rate" : packages sent per second, or 0 for no
+ * limit. "concurrency" : largest number of packages in flight, or 0 for no
+ * limit. "names" : names of the starting GPS offices, separated by commas.
+ * "X1" "Y1" "X2" "Y2" : corners of the rectangle of the destinations.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class LoadGenerator {
+
+	/**
+	 * Time in milliseconds without a finished package after which the load
+	 * test gives up on the packages still in flight.
+	 */
+	private static final long IDLE_TIMEOUT = 60000;
+
+	/**
+	 * Number of packages to send.
+	 */
+	private final int packages;
+	/**
+	 * Packages sent per second, or 0 for no limit.
+	 */
+	private final double rate;
+	/**
+	 * Limits the number of packages in flight, or null for no limit.
+	 */
+	private final Semaphore inFlight;
+	/**
+	 * The starting GPS offices.
+	 */
+	private final GPSOfficeInterface[] offices;
+	/**
+	 * Corners of the rectangle of the destinations.
+	 */
+	private final double x1, y1, x2, y2;
+	/**
+	 * A map from the track number of a package in flight to the time in
+	 * nanoseconds when it was sent.
+	 */
+	private final ConcurrentMap<Long, Long> sent = new ConcurrentHashMap<Long, Long>();
+	/**
+	 * A map from the track number of a package that finished before its
+	 * receipt was returned to the event that finished it.
+	 */
+	private final ConcurrentMap<Long, Finish> early = new ConcurrentHashMap<Long, Finish>();
+	/**
+	 * Counts down as the packages finish.
+	 */
+	private final CountDownLatch finished;
+	/**
+	 * Numbers of packages delivered, lost, rejected and not sent.
+	 */
+	private final AtomicLong delivered = new AtomicLong(),
+			lost = new AtomicLong(), rejected = new AtomicLong(),
+			failed = new AtomicLong();
+	/**
+	 * Delivery latencies in milliseconds.
+	 */
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Constructs a new LoadGenerator object.
+	 * 
+	 * @param args
+	 *            Command line arguments, without "-load".
+	 * @throws IllegalArgumentException
+	 *             Thrown if there is a discrepancy in the command line
+	 *             arguments.
+	 * @throws RemoteException
+	 *             Thrown if the registry server cannot be reached.
+	 * @throws NotBoundException
+	 *             Thrown if a starting GPS office is not bound.
+	 */
+	public LoadGenerator(String[] args) throws RemoteException,
+			NotBoundException {
+		if (args.length != 10) {
+			throw new IllegalArgumentException(
+					"Usage: java Customer <host> <port> -load <packages> "
+							+ "<rate> <concurrency> <names> <X1> <Y1> <X2> <Y2>");
+		}
+		int port = parseInt(args[1], "port");
+		packages = parseInt(args[2], "packages");
+		rate = parseDouble(args[3], "rate");
+		int concurrency = parseInt(args[4], "concurrency");
+		inFlight = concurrency > 0 ? new Semaphore(concurrency) : null;
+		x1 = parseDouble(args[6], "X1");
+		y1 = parseDouble(args[7], "Y1");
+		x2 = parseDouble(args[8], "X2");
+		y2 = parseDouble(args[9], "Y2");
+		finished = new CountDownLatch(packages);
+
+		RegistryProxy proxy = new RegistryProxy(args[0], port);
+		String[] names = args[5].split(",");
+		offices = new GPSOfficeInterface[names.length];
+		for (int i = 0; i < names.length; ++i) {
+			offices[i] = (GPSOfficeInterface) proxy.lookup(names[i]);
+		}
+	}
+
+	/**
+	 * Sends the packages, waits for them to finish and prints the report.
+	 * 
+	 * @throws RemoteException
+	 *             Thrown if the listener cannot be exported.
+	 * @throws InterruptedException
+	 *             Thrown if the load test is interrupted.
+	 */
+	public void run() throws RemoteException, InterruptedException {
+		final RemoteEventListener<GPSOfficeEvent> listener = new RemoteEventListener<GPSOfficeEvent>() {
+			public void report(long seq, GPSOfficeEvent event) {
+				handle(event, System.nanoTime());
+			}
+		};
+		UnicastRemoteObject.exportObject(listener, 0);
+
+		ExecutorService senders = GPSExecutors.newExecutor();
+		Random random = new Random();
+		long start = System.nanoTime();
+		for (int i = 0; i < packages; ++i) {
+			if (rate > 0) {
+				long due = start + (long) (i * 1e9 / rate);
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+			}
+			if (inFlight != null) {
+				inFlight.acquire();
+			}
+			final GPSOfficeInterface office = offices[i % offices.length];
+			final double x = x1 + random.nextDouble() * (x2 - x1);
+			final double y = y1 + random.nextDouble() * (y2 - y1);
+			senders.execute(new Runnable() {
+				@Override
+				public void run() {
+					send(office, x, y, listener);
+				}
+			});
+		}
+		long sendTime = System.nanoTime() - start;
+
+		long done = 0;
+		while (finished.getCount() > 0) {
+			if (!finished.await(IDLE_TIMEOUT, TimeUnit.MILLISECONDS)
+					&& finished.getCount() == packages - done) {
+				break;
+			}
+			done = packages - finished.getCount();
+		}
+		long elapsed = System.nanoTime() - start;
+		senders.shutdown();
+		report(sendTime, elapsed);
+	}
+
+	/**
+	 * Sends one package and records when it was sent.
+	 */
+	private void send(GPSOfficeInterface office, double x, double y,
+			RemoteEventListener<GPSOfficeEvent> listener) {
+		long time = System.nanoTime();
+		Receipt receipt;
+		try {
+			receipt = office.sendPackages(new double[] { x },
+					new double[] { y }, listener)[0];
+		} catch (RemoteException e) {
+			failed.incrementAndGet();
+			finish();
+			return;
+		}
+		Long trackNumber = receipt.getTrackNumber();
+		sent.put(trackNumber, time);
+		Finish f = early.remove(trackNumber);
+		if (f != null) {
+			handle(f.event, f.time);
+		}
+	}
+
+	/**
+	 * Counts a finished package and records its delivery latency.
+	 */
+	private void handle(GPSOfficeEvent event, long time) {
+		if (!event.isDelivered() && !event.isLost() && !event.isRejected()) {
+			return;
+		}
+		Long trackNumber = event.getReceipt().getTrackNumber();
+		Long sentTime = sent.remove(trackNumber);
+		if (sentTime == null) {
+			// The receipt has not been returned yet; the sender handles the
+			// event when it is.
+			early.put(trackNumber, new Finish(event, time));
+			if (sent.containsKey(trackNumber)
+					&& early.remove(trackNumber) != null) {
+				handle(event, time);
+			}
+			return;
+		}
+		if (event.isDelivered()) {
+			delivered.incrementAndGet();
+			latency.record(TimeUnit.NANOSECONDS.toMillis(time - sentTime));
+		} else if (event.isLost()) {
+			lost.incrementAndGet();
+		} else {
+			rejected.incrementAndGet();
+		}
+		finish();
+	}
+
+	/**
+	 * Marks a package as finished.
+	 */
+	private void finish() {
+		if (inFlight != null) {
+			inFlight.release();
+		}
+		finished.countDown();
+	}
+
+	/**
+	 * Prints the results of the load test.
+	 */
+	private void report(long sendTime, long elapsed) {
+		double seconds = elapsed / 1e9;
+		long done = delivered.get() + lost.get() + rejected.get()
+				+ failed.get();
+		System.out.println("Sent " + packages + " packages to "
+				+ offices.length + " offices in "
+				+ TimeUnit.NANOSECONDS.toMillis(sendTime) + " ms ("
+				+ Math.round(packages / (sendTime / 1e9)) + "/s)");
+		System.out.println("Finished " + done + " packages in "
+				+ Math.round(seconds * 1000) + " ms ("
+				+ Math.round(done / seconds) + "/s)");
+		System.out.println("Delivered " + delivered.get() + ", lost "
+				+ lost.get() + ", rejected " + rejected.get()
+				+ ", not sent " + failed.get() + ", unfinished "
+				+ (packages - done));
+		System.out.println("Delivery latency ms: " + latency.summary());
+	}
+
+	/**
+	 * Parses an integer command line argument.
+	 */
+	private static int parseInt(String arg, String name) {
+		try {
+			return Integer.parseInt(arg);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Customer: Invalid <" + name
+					+ ">: " + arg);
+		}
+	}
+
+	/**
+	 * Parses a real number command line argument.
+	 */
+	private static double parseDouble(String arg, String name) {
+		try {
+			return Double.parseDouble(arg);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Customer: Invalid <" + name
+					+ ">: " + arg);
+		}
+	}
+
+	/**
+	 * Class Finish is an event that finished a package, with the time it was
+	 * received.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Finish {
+		/**
+		 * The event.
+		 */
+		public final GPSOfficeEvent event;
+		/**
+		 * Time in nanoseconds when the event was received.
+		 */
+		public final long time;
+
+		/**
+		 * Construct a new Finish object.
+		 */
+		public Finish(GPSOfficeEvent event, long time) {
+			this.event = event;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface NeighborListener is the Java RMI interface through which the GPS
+ * office directory pushes a new neighbor set to a GPS office.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public interface NeighborListener extends Remote {
+
+	/**
+	 * Reports that the neighbors of the GPS office have changed.
+	 * 
+	 * @param neighbors
+	 *            The new neighbor set.
+	 * @throws RemoteException
+	 *             Thrown if a remote error occurs.
+	 */
+	public void neighborsChanged(NeighborSet neighbors) throws RemoteException;
+
+}
@@ -0,0 +1,629 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class NeighborSelector chooses the GPS offices a GPS office hands packages
+ * to. Two choices are provided:
+ * 
+ * "delaunay" (the default) makes two offices neighbors when their Voronoi
+ * cells share an edge, which gives the Delaunay graph of the offices. Greedy
+ * forwarding on it always reaches the office closest to the destination: an
+ * office that is not the closest always has a neighbor that is closer to the
+ * destination than itself. Every office has six neighbors on average, fewer
+ * at the edge of the area and more in dense clusters.
+ * 
+ * "nearest" makes the k closest offices neighbors, k being set by
+ * "gps.neighborCount" (default 3). Greedy forwarding on it can stop at an
+ * office that is not the closest to the destination.
+ * 
+ * The choice is made by the "gps.neighbors" system property. All the GPS
+ * offices and the GPS office directory must make the same choice.
+ * 
+ * The Voronoi cell of an office is found by clipping a rectangle around the
+ * offices with the bisectors of the offices around it, closest first, until
+ * no office left can cut it. The rectangle (see clipBounds) reaches about one
+ * office spacing beyond the outermost offices, and the guarantee holds for
+ * the destinations inside it; a package for a destination outside is still
+ * carried to the edge of the area. The neighbors of two offices agree as
+ * long as their cells were clipped to the same rectangle, so whoever keeps
+ * the neighbors up to date must choose again the neighbors of every office
+ * whose cell reaches the rectangle (see Selection.open) when it changes.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public abstract class NeighborSelector {
+
+	/**
+	 * Number of closest offices fetched to estimate the size of a Voronoi
+	 * cell.
+	 */
+	private static final int SEED_COUNT = 8;
+
+	/**
+	 * Chooses the neighbors of a GPS office.
+	 * 
+	 * @param office
+	 *            The GPS office.
+	 * @param candidates
+	 *            The other GPS offices.
+	 * @return The neighbors of the office.
+	 */
+	public abstract Selection select(GPSOfficeDescriptor office,
+			Candidates candidates);
+
+	/**
+	 * Returns true if the neighbor relation is symmetric, so that the offices
+	 * whose neighbors change when an office joins are the neighbors of the
+	 * office that joined.
+	 * 
+	 * @return True if the relation is symmetric.
+	 */
+	public abstract boolean isSymmetric();
+
+	/**
+	 * Returns the neighbor selector chosen by the "gps.neighbors" and
+	 * "gps.neighborCount" system properties.
+	 * 
+	 * @return The neighbor selector.
+	 * @throws IllegalArgumentException
+	 *             Thrown if a property has an invalid value.
+	 */
+	public static NeighborSelector fromProperties() {
+		String kind = System.getProperty("gps.neighbors", "delaunay");
+		if (kind.equals("delaunay")) {
+			return delaunay();
+		} else if (kind.equals("nearest")) {
+			return nearest(Integer.getInteger("gps.neighborCount", 3));
+		}
+		throw new IllegalArgumentException(
+				"NeighborSelector: Invalid gps.neighbors: " + kind);
+	}
+
+	/**
+	 * Returns a neighbor selector that chooses the k closest offices.
+	 * 
+	 * @param k
+	 *            Number of neighbors of an office.
+	 * @return The neighbor selector.
+	 * @throws IllegalArgumentException
+	 *             Thrown if k is not positive.
+	 */
+	public static NeighborSelector nearest(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException(
+					"NeighborSelector: Invalid neighbor count: " + k);
+		}
+		return new Nearest(k);
+	}
+
+	/**
+	 * Returns a neighbor selector that chooses the Delaunay neighbors.
+	 * 
+	 * @return The neighbor selector.
+	 */
+	public static NeighborSelector delaunay() {
+		return new Delaunay();
+	}
+
+	/**
+	 * Returns the candidates of a collection of GPS offices. The candidates
+	 * are searched linearly, which suits an office that chooses only its own
+	 * neighbors.
+	 * 
+	 * @param offices
+	 *            The other GPS offices.
+	 * @return The candidates.
+	 */
+	public static Candidates candidates(
+			Collection<GPSOfficeDescriptor> offices) {
+		return new ListCandidates(offices);
+	}
+
+	/**
+	 * Returns the candidates in a spatial grid of GPS offices, which suits
+	 * choosing the neighbors of many offices.
+	 * 
+	 * @param grid
+	 *            The GPS offices, by name.
+	 * @param name
+	 *            Name of the GPS office whose neighbors are chosen.
+	 * @param bounds
+	 *            The rectangle the cells are clipped to, as returned by
+	 *            clipBounds.
+	 * @return The candidates.
+	 */
+	public static Candidates candidates(
+			SpatialGrid<GPSOfficeDescriptor> grid, String name, double[] bounds) {
+		return new GridCandidates(grid, name, bounds);
+	}
+
+	/**
+	 * Returns the rectangle the Voronoi cells of a number of GPS offices are
+	 * clipped to: the rectangle that holds them, grown by about one office
+	 * spacing on every side, as if the area went on.
+	 * 
+	 * @param extent
+	 *            The smallest X, smallest Y, largest X and largest Y of the
+	 *            offices.
+	 * @param count
+	 *            Number of offices.
+	 * @return The smallest X, smallest Y, largest X and largest Y of the
+	 *         rectangle.
+	 */
+	public static double[] clipBounds(double[] extent, int count) {
+		double width = Math.max(extent[2] - extent[0], extent[3] - extent[1]);
+		double margin = Math.max(Math.sqrt(width * width / Math.max(count, 1)),
+				1e-9 * width);
+		if (!(margin > 0)) {
+			margin = 1;
+		}
+		return new double[] { extent[0] - margin, extent[1] - margin,
+				extent[2] + margin, extent[3] + margin };
+	}
+
+	/**
+	 * Returns the distance between two points.
+	 */
+	private static double distance(GPSOfficeDescriptor a, GPSOfficeDescriptor b) {
+		double dx = a.getX() - b.getX(), dy = a.getY() - b.getY();
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Sorts GPS offices by their distance from an office.
+	 */
+	private static void sort(List<GPSOfficeDescriptor> offices,
+			final GPSOfficeDescriptor office) {
+		Collections.sort(offices, new Comparator<GPSOfficeDescriptor>() {
+			@Override
+			public int compare(GPSOfficeDescriptor a, GPSOfficeDescriptor b) {
+				return Double.compare(distance(office, a), distance(office, b));
+			}
+		});
+	}
+
+	/**
+	 * Interface Candidates gives a NeighborSelector access to the GPS offices
+	 * that can be chosen as neighbors of an office, which is not one of them.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	public interface Candidates {
+		/**
+		 * Returns the number of candidates.
+		 * 
+		 * @return the number of candidates.
+		 */
+		public int size();
+
+		/**
+		 * Returns the candidates closest to a location.
+		 * 
+		 * @param x
+		 *            X coordinate of the location.
+		 * @param y
+		 *            Y coordinate of the location.
+		 * @param k
+		 *            The number of candidates to return.
+		 * @return At most k candidates, closest first.
+		 */
+		public List<GPSOfficeDescriptor> nearest(double x, double y, int k);
+
+		/**
+		 * Returns the candidates within a distance of a location.
+		 * 
+		 * @param x
+		 *            X coordinate of the location.
+		 * @param y
+		 *            Y coordinate of the location.
+		 * @param distance
+		 *            The distance from the location.
+		 * @return The candidates, in no particular order.
+		 */
+		public List<GPSOfficeDescriptor> within(double x, double y,
+				double distance);
+
+		/**
+		 * Returns the rectangle the Voronoi cells are clipped to, which holds
+		 * all the candidates with room around them. Offices whose neighbors
+		 * must agree need the same rectangle.
+		 * 
+		 * @return The smallest X, smallest Y, largest X and largest Y of the
+		 *         rectangle.
+		 */
+		public double[] bounds();
+	}
+
+	/**
+	 * Class Selection is the neighbors chosen for a GPS office.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	public static class Selection {
+		/**
+		 * The neighbors, closest first.
+		 */
+		public final List<GPSOfficeDescriptor> neighbors;
+		/**
+		 * The distance beyond which an office that joins cannot change the
+		 * neighbors, or infinity if any office can.
+		 */
+		public final double reach;
+		/**
+		 * True if the Voronoi cell of the office reaches the rectangle it was
+		 * clipped to, so that the neighbors depend on the rectangle.
+		 */
+		public final boolean open;
+
+		/**
+		 * Construct a new Selection object that does not depend on a
+		 * rectangle.
+		 */
+		public Selection(List<GPSOfficeDescriptor> neighbors, double reach) {
+			this(neighbors, reach, false);
+		}
+
+		/**
+		 * Construct a new Selection object.
+		 */
+		public Selection(List<GPSOfficeDescriptor> neighbors, double reach,
+				boolean open) {
+			this.neighbors = neighbors;
+			this.reach = reach;
+			this.open = open;
+		}
+	}
+
+	/**
+	 * Class Nearest chooses the k closest offices.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Nearest extends NeighborSelector {
+		/**
+		 * Number of neighbors of an office.
+		 */
+		private final int k;
+
+		/**
+		 * Construct a new Nearest object.
+		 */
+		public Nearest(int k) {
+			this.k = k;
+		}
+
+		@Override
+		public Selection select(GPSOfficeDescriptor office,
+				Candidates candidates) {
+			List<GPSOfficeDescriptor> neighbors = candidates.nearest(
+					office.getX(), office.getY(), k);
+			double reach = neighbors.size() < k ? Double.POSITIVE_INFINITY
+					: distance(office, neighbors.get(k - 1));
+			return new Selection(neighbors, reach);
+		}
+
+		@Override
+		public boolean isSymmetric() {
+			return false;
+		}
+	}
+
+	/**
+	 * Class Delaunay chooses the offices whose Voronoi cells share an edge
+	 * with the cell of the office.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Delaunay extends NeighborSelector {
+
+		@Override
+		public Selection select(GPSOfficeDescriptor office,
+				Candidates candidates) {
+			double x = office.getX(), y = office.getY();
+			List<GPSOfficeDescriptor> seed = candidates.nearest(x, y,
+					SEED_COUNT);
+			if (seed.isEmpty()) {
+				return new Selection(seed, Double.POSITIVE_INFINITY, true);
+			}
+			// An office outside the rectangle gets the distance to its
+			// closest office as room beyond it.
+			double[] b = candidates.bounds();
+			double room = distance(office, seed.get(0));
+			double minX = x < b[0] ? x - room : b[0];
+			double minY = y < b[1] ? y - room : b[1];
+			double maxX = x > b[2] ? x + room : b[2];
+			double maxY = y > b[3] ? y + room : b[3];
+
+			// The cell is clipped by every office within twice the distance
+			// to its farthest corner; if the offices fetched do not reach
+			// that far, offices twice as far are fetched and the cell is
+			// clipped again.
+			double radius = distance(office, seed.get(seed.size() - 1));
+			while (true) {
+				List<GPSOfficeDescriptor> near = candidates.within(x, y,
+						radius);
+				for (int i = near.size() - 1; i >= 0; --i) {
+					if (near.get(i).getName().equals(office.getName())) {
+						near.remove(i);
+					}
+				}
+				sort(near, office);
+				Cell cell = new Cell(minX, minY, maxX, maxY);
+				for (int i = 0; i < near.size(); ++i) {
+					GPSOfficeDescriptor d = near.get(i);
+					if (distance(office, d) > 2 * cell.farthest(x, y)) {
+						break;
+					}
+					cell.clip(x, y, d.getX(), d.getY(), i);
+				}
+				double reach = 2 * cell.farthest(x, y);
+				if (reach <= radius || near.size() >= candidates.size()) {
+					boolean[] owned = cell.owners(near.size());
+					List<GPSOfficeDescriptor> neighbors = new ArrayList<GPSOfficeDescriptor>();
+					for (int i = 0; i < near.size(); ++i) {
+						if (owned[i]) {
+							neighbors.add(near.get(i));
+						}
+					}
+					return new Selection(neighbors, reach, cell.isOpen());
+				}
+				radius = Math.min(reach, 2 * radius);
+			}
+		}
+
+		@Override
+		public boolean isSymmetric() {
+			return true;
+		}
+	}
+
+	/**
+	 * Class Cell is a convex polygon that every clip cuts with a half-plane.
+	 * Every edge remembers the office whose bisector it lies on, or -1 for an
+	 * edge of the starting rectangle.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class Cell {
+		/**
+		 * Coordinates of the corners, in order around the polygon.
+		 */
+		private double[] xs = new double[8], ys = new double[8];
+		/**
+		 * The office of the edge from every corner to the next.
+		 */
+		private int[] owners = new int[8];
+		/**
+		 * Number of corners.
+		 */
+		private int size;
+
+		/**
+		 * Construct a new Cell object that is a rectangle.
+		 */
+		public Cell(double x1, double y1, double x2, double y2) {
+			add(x1, y1, -1);
+			add(x2, y1, -1);
+			add(x2, y2, -1);
+			add(x1, y2, -1);
+		}
+
+		/**
+		 * Keeps the part of the cell that is closer to the office at (ox, oy)
+		 * than to the office at (cx, cy).
+		 */
+		public void clip(double ox, double oy, double cx, double cy, int owner) {
+			double nx = cx - ox, ny = cy - oy;
+			double h = (nx * nx + ny * ny) / 2;
+			if (h == 0) {
+				return;
+			}
+			double[] oldXs = xs, oldYs = ys;
+			int[] oldOwners = owners;
+			int n = size;
+			xs = new double[n + 2];
+			ys = new double[n + 2];
+			owners = new int[n + 2];
+			size = 0;
+			for (int i = 0; i < n; ++i) {
+				int j = i + 1 == n ? 0 : i + 1;
+				double fi = (oldXs[i] - ox) * nx + (oldYs[i] - oy) * ny - h;
+				double fj = (oldXs[j] - ox) * nx + (oldYs[j] - oy) * ny - h;
+				if (fi <= 0) {
+					add(oldXs[i], oldYs[i], oldOwners[i]);
+				}
+				if ((fi <= 0) != (fj <= 0)) {
+					double t = fi / (fi - fj);
+					// Leaving the half-plane, the edge runs along the
+					// bisector until it enters again.
+					add(oldXs[i] + t * (oldXs[j] - oldXs[i]), oldYs[i] + t
+							* (oldYs[j] - oldYs[i]), fi <= 0 ? owner
+							: oldOwners[i]);
+				}
+			}
+		}
+
+		/**
+		 * Returns the distance from a point to the farthest corner.
+		 */
+		public double farthest(double x, double y) {
+			double max = 0;
+			for (int i = 0; i < size; ++i) {
+				double dx = xs[i] - x, dy = ys[i] - y;
+				max = Math.max(max, dx * dx + dy * dy);
+			}
+			return Math.sqrt(max);
+		}
+
+		/**
+		 * Returns true if an edge of the starting rectangle is left.
+		 */
+		public boolean isOpen() {
+			for (int i = 0; i < size; ++i) {
+				if (owners[i] < 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns which offices own an edge.
+		 */
+		public boolean[] owners(int count) {
+			boolean[] owned = new boolean[count];
+			for (int i = 0; i < size; ++i) {
+				if (owners[i] >= 0) {
+					owned[owners[i]] = true;
+				}
+			}
+			return owned;
+		}
+
+		/**
+		 * Adds a corner.
+		 */
+		private void add(double x, double y, int owner) {
+			xs[size] = x;
+			ys[size] = y;
+			owners[size++] = owner;
+		}
+	}
+
+	/**
+	 * Class ListCandidates is the candidates of a collection of GPS offices.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class ListCandidates implements Candidates {
+		/**
+		 * The GPS offices.
+		 */
+		private final List<GPSOfficeDescriptor> offices;
+		/**
+		 * The rectangle the cells are clipped to.
+		 */
+		private final double[] bounds;
+
+		/**
+		 * Construct a new ListCandidates object.
+		 */
+		public ListCandidates(Collection<GPSOfficeDescriptor> offices) {
+			this.offices = new ArrayList<GPSOfficeDescriptor>(offices);
+			double[] extent = { Double.POSITIVE_INFINITY,
+					Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+					Double.NEGATIVE_INFINITY };
+			for (GPSOfficeDescriptor d : offices) {
+				extent[0] = Math.min(extent[0], d.getX());
+				extent[1] = Math.min(extent[1], d.getY());
+				extent[2] = Math.max(extent[2], d.getX());
+				extent[3] = Math.max(extent[3], d.getY());
+			}
+			// The office whose neighbors are chosen is one more.
+			bounds = offices.isEmpty() ? extent : clipBounds(extent,
+					offices.size() + 1);
+		}
+
+		@Override
+		public int size() {
+			return offices.size();
+		}
+
+		@Override
+		public List<GPSOfficeDescriptor> nearest(double x, double y, int k) {
+			List<GPSOfficeDescriptor> result = new ArrayList<GPSOfficeDescriptor>(
+					offices);
+			sort(result, new GPSOfficeDescriptor(null, x, y));
+			return new ArrayList<GPSOfficeDescriptor>(result.subList(0,
+					Math.min(k, result.size())));
+		}
+
+		@Override
+		public List<GPSOfficeDescriptor> within(double x, double y,
+				double distance) {
+			GPSOfficeDescriptor location = new GPSOfficeDescriptor(null, x, y);
+			List<GPSOfficeDescriptor> result = new ArrayList<GPSOfficeDescriptor>();
+			for (GPSOfficeDescriptor d : offices) {
+				if (distance(location, d) <= distance) {
+					result.add(d);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public double[] bounds() {
+			return Arrays.copyOf(bounds, 4);
+		}
+	}
+
+	/**
+	 * Class GridCandidates is the candidates in a spatial grid of GPS
+	 * offices.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class GridCandidates implements Candidates {
+		/**
+		 * The GPS offices.
+		 */
+		private final SpatialGrid<GPSOfficeDescriptor> grid;
+		/**
+		 * Name of the GPS office whose neighbors are chosen.
+		 */
+		private final String name;
+		/**
+		 * The rectangle the cells are clipped to.
+		 */
+		private final double[] bounds;
+
+		/**
+		 * Construct a new GridCandidates object.
+		 */
+		public GridCandidates(SpatialGrid<GPSOfficeDescriptor> grid,
+				String name, double[] bounds) {
+			this.grid = grid;
+			this.name = name;
+			this.bounds = bounds;
+		}
+
+		@Override
+		public int size() {
+			return grid.get(name) == null ? grid.size() : grid.size() - 1;
+		}
+
+		@Override
+		public List<GPSOfficeDescriptor> nearest(double x, double y, int k) {
+			return grid.nearest(x, y, k, name);
+		}
+
+		@Override
+		public List<GPSOfficeDescriptor> within(double x, double y,
+				double distance) {
+			List<GPSOfficeDescriptor> result = grid.within(x, y, distance);
+			for (int i = result.size() - 1; i >= 0; --i) {
+				if (result.get(i).getName().equals(name)) {
+					result.remove(i);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public double[] bounds() {
+			return Arrays.copyOf(bounds, 4);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class NeighborSet is a versioned set of the neighbor GPS offices of one GPS
+ * office, as computed by the GPS office directory. A GPS office that receives
+ * the sets out of order keeps the one with the highest version.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class NeighborSet implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Version number of this set.
+	 */
+	private final long version;
+	/**
+	 * The neighbor GPS offices, closest first.
+	 */
+	private final List<GPSOfficeEntry> neighbors;
+
+	/**
+	 * Constructs a new NeighborSet object.
+	 * 
+	 * @param version
+	 *            Version number of this set.
+	 * @param neighbors
+	 *            The neighbor GPS offices, closest first.
+	 */
+	public NeighborSet(long version, List<GPSOfficeEntry> neighbors) {
+		this.version = version;
+		this.neighbors = Collections
+				.unmodifiableList(new ArrayList<GPSOfficeEntry>(neighbors));
+	}
+
+	/**
+	 * Returns the version number of this set.
+	 * 
+	 * @return the version number of this set.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the neighbor GPS offices, closest first.
+	 * 
+	 * @return an unmodifiable list of the neighbor GPS offices.
+	 */
+	public List<GPSOfficeEntry> getNeighbors() {
+		return neighbors;
+	}
+}
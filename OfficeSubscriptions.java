@@ -0,0 +1,302 @@
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.rit.ds.Lease;
+import edu.rit.ds.registry.NotBoundException;
+import edu.rit.ds.registry.RegistryProxy;
+
+/**
+ * Class OfficeSubscriptions keeps a listener subscribed to every GPS office
+ * in a registry server. The subscriptions are made by a bounded number of
+ * threads at once. An office that cannot be reached is tried again in the
+ * background, waiting twice as long after every failure, until it is
+ * subscribed or is no longer bound. The leases of the subscriptions are
+ * renewed periodically on the same threads, so that a slow office does not
+ * hold up the renewals of the others; an office whose lease cannot be renewed
+ * is subscribed to again.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class OfficeSubscriptions {
+
+	/**
+	 * Time in milliseconds before the first retry of a failed subscription.
+	 */
+	private static final long RETRY_DELAY = 1000;
+	/**
+	 * Largest time in milliseconds between two retries of a subscription.
+	 */
+	private static final long MAX_RETRY_DELAY = 60000;
+	/**
+	 * Time in milliseconds between two renewals of the leases.
+	 */
+	private static final long RENEW_INTERVAL = 30000;
+
+	/**
+	 * A registry proxy reference.
+	 */
+	private final RegistryProxy registry;
+	/**
+	 * The object that subscribes the listener to an office.
+	 */
+	private final Subscriber subscriber;
+	/**
+	 * The log of the failed subscriptions.
+	 */
+	private final AsyncLog log;
+	/**
+	 * A thread pool of a bounded size that makes the subscriptions and
+	 * renews the leases.
+	 */
+	private final ExecutorService executor;
+	/**
+	 * A timer for the retries and the renewals.
+	 */
+	private final ScheduledExecutorService scheduler = GPSExecutors
+			.newScheduler();
+	/**
+	 * A map from the name of a subscribed office to its lease.
+	 */
+	private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+	/**
+	 * The names of the offices being subscribed to, including the ones
+	 * waiting for a retry.
+	 */
+	private final Set<String> inProgress = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * The names of the offices whose lease is being renewed.
+	 */
+	private final Set<String> renewing = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * The names of the offices found at startup that are not subscribed to
+	 * yet.
+	 */
+	private final Set<String> pending = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * Number of offices found at startup.
+	 */
+	private volatile int initial;
+	/**
+	 * Time in milliseconds when the subscriptions started.
+	 */
+	private volatile long start;
+	/**
+	 * Number of failed subscription attempts.
+	 */
+	private final AtomicInteger failures = new AtomicInteger();
+
+	/**
+	 * Constructs a new OfficeSubscriptions object.
+	 * 
+	 * @param registry
+	 *            A registry proxy reference.
+	 * @param parallelism
+	 *            Largest number of subscriptions made at once.
+	 * @param subscriber
+	 *            The object that subscribes the listener to an office.
+	 * @param log
+	 *            The log of the failed subscriptions.
+	 */
+	public OfficeSubscriptions(RegistryProxy registry, int parallelism,
+			Subscriber subscriber, AsyncLog log) {
+		this.registry = registry;
+		this.subscriber = subscriber;
+		this.log = log;
+		executor = GPSExecutors.newFixedExecutor(parallelism);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				renew();
+			}
+		}, RENEW_INTERVAL, RENEW_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Subscribes to the offices found at startup. The time until all of them
+	 * are subscribed to, or are no longer bound, is logged.
+	 * 
+	 * @param offices
+	 *            The names of the offices.
+	 */
+	public void subscribeAll(Collection<String> offices) {
+		start = System.currentTimeMillis();
+		initial = offices.size();
+		pending.addAll(offices);
+		if (pending.isEmpty()) {
+			complete();
+		}
+		for (String office : offices) {
+			if (!leases.containsKey(office) && inProgress.add(office)) {
+				schedule(office, 0, 0);
+			}
+		}
+	}
+
+	/**
+	 * Subscribes to an office, replacing the subscription it had before it
+	 * was bound again.
+	 * 
+	 * @param office
+	 *            The name of the office.
+	 */
+	public void subscribe(String office) {
+		leases.remove(office);
+		if (inProgress.add(office)) {
+			schedule(office, 0, 0);
+		}
+	}
+
+	/**
+	 * Forgets an office that is no longer bound.
+	 * 
+	 * @param office
+	 *            The name of the office.
+	 */
+	public void forget(String office) {
+		leases.remove(office);
+		done(office);
+	}
+
+	/**
+	 * Returns the number of offices subscribed to.
+	 * 
+	 * @return the number of subscriptions.
+	 */
+	public int size() {
+		return leases.size();
+	}
+
+	/**
+	 * Makes an attempt to subscribe to an office on the thread pool after a
+	 * delay.
+	 */
+	private void schedule(final String office, final int attempt, long delay) {
+		final Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				attempt(office, attempt);
+			}
+		};
+		if (delay == 0) {
+			executor.execute(task);
+		} else {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					executor.execute(task);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Tries to subscribe to an office, and schedules a retry if it fails.
+	 */
+	private void attempt(String office, int attempt) {
+		try {
+			GPSOfficeInterface gps = (GPSOfficeInterface) registry
+					.lookup(office);
+			leases.put(office, subscriber.subscribe(gps));
+			inProgress.remove(office);
+			done(office);
+		} catch (NotBoundException e) {
+			inProgress.remove(office);
+			done(office);
+		} catch (RemoteException e) {
+			failures.incrementAndGet();
+			if (attempt == 0) {
+				log.println("Cannot subscribe to " + office
+						+ " office, retrying in the background");
+			}
+			schedule(office, attempt + 1, Math.min(
+					RETRY_DELAY << Math.min(attempt, 16), MAX_RETRY_DELAY));
+		}
+	}
+
+	/**
+	 * Marks an office found at startup as handled.
+	 */
+	private void done(String office) {
+		if (pending.remove(office) && pending.isEmpty()) {
+			complete();
+		}
+	}
+
+	/**
+	 * Logs the time taken to subscribe to the offices found at startup.
+	 */
+	private void complete() {
+		log.println("Subscribed to " + leases.size() + " of " + initial
+				+ " offices in " + (System.currentTimeMillis() - start)
+				+ " ms after " + failures.get() + " failed attempts");
+	}
+
+	/**
+	 * Renews the leases on the thread pool, skipping the ones whose last
+	 * renewal has not finished yet.
+	 */
+	private void renew() {
+		for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+			final String office = entry.getKey();
+			final Lease lease = entry.getValue();
+			if (renewing.add(office)) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						renew(office, lease);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Renews the lease of an office, and subscribes to it again if the lease
+	 * cannot be renewed.
+	 */
+	private void renew(String office, Lease lease) {
+		try {
+			lease.renew();
+		} catch (RemoteException e) {
+			if (leases.remove(office, lease)) {
+				subscribe(office);
+			}
+		} finally {
+			renewing.remove(office);
+		}
+	}
+
+	/**
+	 * Interface Subscriber subscribes a listener to the events of a GPS
+	 * office.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	public interface Subscriber {
+		/**
+		 * Subscribes the listener to the events of a GPS office.
+		 * 
+		 * @param office
+		 *            The GPS office.
+		 * @return The lease of the subscription.
+		 * @throws RemoteException
+		 *             Thrown if a remote error occurs.
+		 */
+		public Lease subscribe(GPSOfficeInterface office)
+				throws RemoteException;
+	}
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.rit.ds.RemoteEventListener;
+
+/**
+ * Class PackageBatch is a number of packages that one GPS office hands to a
+ * neighbor GPS office in a single remote call. Every package has its receipt,
+ * whose coordinates are its destination, and the listener of its customer.
+ * 
+ * A batch is written as the number of packages followed by the compact form
+ * of each receipt and its listener. The packages of one customer share a
+ * listener, which is written only once.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class PackageBatch implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The receipts of the packages.
+	 */
+	private transient List<Receipt> receipts;
+	/**
+	 * The listeners of the packages, in the order of the receipts.
+	 */
+	private transient List<RemoteEventListener<GPSOfficeEvent>> listeners;
+
+	/**
+	 * Constructs a new, empty PackageBatch object.
+	 */
+	public PackageBatch() {
+		receipts = new ArrayList<Receipt>();
+		listeners = new ArrayList<RemoteEventListener<GPSOfficeEvent>>();
+	}
+
+	/**
+	 * Adds a package to this batch.
+	 * 
+	 * @param receipt
+	 *            The receipt of the package.
+	 * @param listener
+	 *            The listener of the customer of the package.
+	 */
+	public void add(Receipt receipt,
+			RemoteEventListener<GPSOfficeEvent> listener) {
+		receipts.add(receipt);
+		listeners.add(listener);
+	}
+
+	/**
+	 * Returns the number of packages in this batch.
+	 * 
+	 * @return the number of packages.
+	 */
+	public int size() {
+		return receipts.size();
+	}
+
+	/**
+	 * Returns the receipt of a package.
+	 * 
+	 * @param i
+	 *            Index of the package.
+	 * @return the receipt.
+	 */
+	public Receipt getReceipt(int i) {
+		return receipts.get(i);
+	}
+
+	/**
+	 * Returns the listener of a package.
+	 * 
+	 * @param i
+	 *            Index of the package.
+	 * @return the listener of the customer.
+	 */
+	public RemoteEventListener<GPSOfficeEvent> getListener(int i) {
+		return listeners.get(i);
+	}
+
+	/**
+	 * Writes this batch in the compact form.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(receipts.size());
+		for (int i = 0; i < receipts.size(); ++i) {
+			receipts.get(i).writeFields(out);
+			out.writeObject(listeners.get(i));
+		}
+	}
+
+	/**
+	 * Reads this batch in the compact form.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		int size = in.readInt();
+		if (size < 0) {
+			throw new InvalidObjectException("PackageBatch: Invalid size: "
+					+ size);
+		}
+		receipts = new ArrayList<Receipt>(size);
+		listeners = new ArrayList<RemoteEventListener<GPSOfficeEvent>>(size);
+		for (int i = 0; i < size; ++i) {
+			receipts.add(Receipt.read(in));
+			listeners.add((RemoteEventListener<GPSOfficeEvent>) in
+					.readObject());
+		}
+	}
+}
@@ -0,0 +1,233 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class PackageMetrics turns the GPSOfficeEvents received by the Headquarters
+ * into counts and latency histograms, overall and for every GPS office:
+ * 
+ * accepted : packages that arrived at their first office. delivered, lost,
+ * rejected : packages that ended at an office. hop : time from the departure
+ * of a package from an office to its arrival at the next one. dwell : time
+ * from the arrival of a package at an office to its departure, which includes
+ * the examination. end to end : time from the first arrival of a package to
+ * its delivery.
+ * 
+ * A hop and a dwell time belong to the office the package left. All the times
+ * are in milliseconds and are taken when the GPS offices generate the events,
+ * so a hop time is only as accurate as the clocks of the two offices agree,
+ * and a negative one counts as 0. The counts and histograms cover the whole run; the rates printed
+ * cover the time since the previous print.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class PackageMetrics {
+
+	/**
+	 * Index of the count of accepted packages.
+	 */
+	private static final int ACCEPTED = 0;
+	/**
+	 * Index of the count of delivered packages.
+	 */
+	private static final int DELIVERED = 1;
+	/**
+	 * Index of the count of lost packages.
+	 */
+	private static final int LOST = 2;
+	/**
+	 * Index of the count of rejected packages.
+	 */
+	private static final int REJECTED = 3;
+	/**
+	 * Names of the counts, indexed by count.
+	 */
+	private static final String[] COUNT_NAMES = { "accepted", "delivered",
+			"lost", "rejected" };
+
+	/**
+	 * The metrics of all the GPS offices together.
+	 */
+	private final OfficeMetrics total = new OfficeMetrics("all");
+	/**
+	 * The metrics of every GPS office.
+	 */
+	private final ConcurrentMap<String, OfficeMetrics> offices = new ConcurrentHashMap<String, OfficeMetrics>();
+	/**
+	 * The time of the previous print.
+	 */
+	private long lastPrint = System.currentTimeMillis();
+
+	/**
+	 * Records an event.
+	 * 
+	 * @param event
+	 *            The event.
+	 * @param before
+	 *            The state of the package before the event, or null if it is
+	 *            the first event of the package.
+	 * @param time
+	 *            Time in milliseconds when the GPS office generated the event.
+	 */
+	public void record(GPSOfficeEvent event, PackageState before, long time) {
+		OfficeMetrics office = office(event.getCurrentOffice());
+		if (before == null && !event.isRejected()) {
+			// A package rejected by the first office was never accepted.
+			count(office, ACCEPTED);
+		}
+		if (event.isRejected()) {
+			count(office, REJECTED);
+		} else if (event.isLost()) {
+			count(office, LOST);
+		} else if (event.isDelivered()) {
+			count(office, DELIVERED);
+			long firstSeen = before == null ? time : before.getFirstSeen();
+			office.endToEnd.record(time - firstSeen);
+			total.endToEnd.record(time - firstSeen);
+		} else if (before == null) {
+			return;
+		} else if (event.isArrived()) {
+			if (before.getStatus().equals("departed")) {
+				OfficeMetrics from = office(before.getOffice());
+				from.hop.record(time - before.getLastSeen());
+				total.hop.record(time - before.getLastSeen());
+			}
+		} else {
+			if (before.getStatus().equals("arrived")
+					&& before.getOffice().equals(event.getCurrentOffice())) {
+				office.dwell.record(time - before.getLastSeen());
+				total.dwell.record(time - before.getLastSeen());
+			}
+		}
+	}
+
+	/**
+	 * Prints the rates since the previous print, the overall metrics and the
+	 * metrics of every GPS office.
+	 * 
+	 * @param out
+	 *            The stream to print on.
+	 */
+	public synchronized void print(PrintStream out) {
+		long now = System.currentTimeMillis();
+		double seconds = Math.max(now - lastPrint, 1) / 1000.0;
+		lastPrint = now;
+		StringBuilder b = new StringBuilder();
+		b.append("--- Metrics ---\n");
+		total.append(b, seconds);
+		List<String> names = new ArrayList<String>(offices.keySet());
+		Collections.sort(names);
+		for (String name : names) {
+			offices.get(name).append(b, seconds);
+		}
+		out.print(b);
+	}
+
+	/**
+	 * Returns the metrics of a GPS office, creating them if there are none.
+	 */
+	private OfficeMetrics office(String name) {
+		OfficeMetrics m = offices.get(name);
+		if (m == null) {
+			OfficeMetrics newMetrics = new OfficeMetrics(name);
+			m = offices.putIfAbsent(name, newMetrics);
+			if (m == null) {
+				m = newMetrics;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Adds one to a count of an office and to the same overall count.
+	 */
+	private void count(OfficeMetrics office, int index) {
+		office.counts[index].incrementAndGet();
+		total.counts[index].incrementAndGet();
+	}
+
+	/**
+	 * Class OfficeMetrics holds the counts and latency histograms of one GPS
+	 * office, or of all of them.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 */
+	private static class OfficeMetrics {
+		/**
+		 * Name of the GPS office.
+		 */
+		public final String name;
+		/**
+		 * Numbers of packages accepted, delivered, lost and rejected.
+		 */
+		public final AtomicLong[] counts = { new AtomicLong(),
+				new AtomicLong(), new AtomicLong(), new AtomicLong() };
+		/**
+		 * Times from a departure to the next arrival.
+		 */
+		public final LatencyHistogram hop = new LatencyHistogram();
+		/**
+		 * Times from an arrival to the departure from the same office.
+		 */
+		public final LatencyHistogram dwell = new LatencyHistogram();
+		/**
+		 * Times from the first arrival to the delivery.
+		 */
+		public final LatencyHistogram endToEnd = new LatencyHistogram();
+		/**
+		 * The counts at the previous print.
+		 */
+		private long[] previous = new long[COUNT_NAMES.length];
+
+		/**
+		 * Construct a new OfficeMetrics object.
+		 */
+		public OfficeMetrics(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Appends the metrics of this office to a string builder.
+		 */
+		public void append(StringBuilder b, double seconds) {
+			long[] current = new long[COUNT_NAMES.length];
+			b.append(name).append(':');
+			for (int i = 0; i < current.length; ++i) {
+				current[i] = counts[i].get();
+				b.append(i == 0 ? " " : ", ").append(COUNT_NAMES[i])
+						.append(' ').append(current[i]).append(" (")
+						.append(rate(current[i] - previous[i], seconds))
+						.append("/s)");
+			}
+			b.append('\n');
+			previous = current;
+			append(b, "hop", hop);
+			append(b, "dwell", dwell);
+			append(b, "end to end", endToEnd);
+		}
+
+		/**
+		 * Appends a histogram to a string builder if it has any values.
+		 */
+		private static void append(StringBuilder b, String label,
+				LatencyHistogram histogram) {
+			if (histogram.getCount() > 0) {
+				b.append("  ").append(label).append(" ms: ")
+						.append(histogram.summary()).append('\n');
+			}
+		}
+
+		/**
+		 * Returns a rate per second, rounded to one decimal.
+		 */
+		private static double rate(long count, double seconds) {
+			return Math.round(count * 10 / seconds) / 10.0;
+		}
+	}
+}
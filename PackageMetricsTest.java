@@ -0,0 +1,78 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Class PackageMetricsTest checks the counts of PackageMetrics. It exits with
+ * a non-zero status if a check fails.
+ * 
+ * Usage: java PackageMetricsTest
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class PackageMetricsTest {
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 *            command line arguments, which are ignored.
+	 */
+	public static void main(String[] args) {
+		int failures = 0;
+		failures += rejectedAtIntake();
+		failures += acceptedAndDelivered();
+		System.out.println(failures == 0 ? "OK" : failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * A package rejected by the first office counts as rejected, not as
+	 * accepted.
+	 */
+	private static int rejectedAtIntake() {
+		PackageMetrics metrics = new PackageMetrics();
+		metrics.record(GPSOfficeEvent.rejected(new Receipt(1, 12.5, 42),
+				"Rochester"), null, 1000);
+		return check("rejected at intake", metrics,
+				"all: accepted 0 (", "rejected 1 (");
+	}
+
+	/**
+	 * A package that arrives and is delivered counts as accepted and
+	 * delivered.
+	 */
+	private static int acceptedAndDelivered() {
+		PackageMetrics metrics = new PackageMetrics();
+		Receipt receipt = new Receipt(2, 12.5, 42);
+		GPSOfficeEvent arrived = new GPSOfficeEvent(receipt, "Rochester",
+				false, false, true);
+		metrics.record(arrived, null, 1000);
+		PackageState state = new PackageState(2, "arrived", "Rochester", 0,
+				1000, 1000);
+		metrics.record(new GPSOfficeEvent(receipt, "Rochester", false, true,
+				false), state, 4000);
+		return check("accepted and delivered", metrics,
+				"all: accepted 1 (", "delivered 1 (", "rejected 0 (");
+	}
+
+	/**
+	 * Checks that the printed metrics contain every expected text.
+	 * 
+	 * @return 0 if they do, 1 otherwise.
+	 */
+	private static int check(String name, PackageMetrics metrics,
+			String... expected) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		metrics.print(new PrintStream(bytes));
+		String printed = bytes.toString();
+		for (String text : expected) {
+			if (!printed.contains(text)) {
+				System.out.println(name + ": expected \"" + text + "\" in:\n"
+						+ printed);
+				return 1;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Class PackageState is a snapshot of what the Headquarters knows about one
+ * package in the Geographic Package System: its last reported status, the GPS
+ * office that reported it, the number of hops it has made and when it was
+ * first and last reported.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class PackageState {
+	/**
+	 * The unique track number that identifies the package.
+	 */
+	private final long trackNumber;
+	/**
+	 * The last reported status of the package.
+	 */
+	private final String status;
+	/**
+	 * Name of the GPS office that last reported the package.
+	 */
+	private final String office;
+	/**
+	 * Number of times the package has left a GPS office.
+	 */
+	private final int hops;
+	/**
+	 * Time in milliseconds when the package was first reported.
+	 */
+	private final long firstSeen;
+	/**
+	 * Time in milliseconds when the package was last reported.
+	 */
+	private final long lastSeen;
+
+	/**
+	 * Constructs a new PackageState object.
+	 * 
+	 * @param trackNumber
+	 *            The unique track number that identifies the package.
+	 * @param status
+	 *            The last reported status of the package.
+	 * @param office
+	 *            Name of the GPS office that last reported the package.
+	 * @param hops
+	 *            Number of times the package has left a GPS office.
+	 * @param firstSeen
+	 *            Time in milliseconds when the package was first reported.
+	 * @param lastSeen
+	 *            Time in milliseconds when the package was last reported.
+	 */
+	public PackageState(long trackNumber, String status, String office,
+			int hops, long firstSeen, long lastSeen) {
+		this.trackNumber = trackNumber;
+		this.status = status;
+		this.office = office;
+		this.hops = hops;
+		this.firstSeen = firstSeen;
+		this.lastSeen = lastSeen;
+	}
+
+	/**
+	 * Returns the track number of the package.
+	 * 
+	 * @return the track number of the package.
+	 */
+	public long getTrackNumber() {
+		return trackNumber;
+	}
+
+	/**
+	 * Returns the last reported status of the package: "arrived", "departed",
+	 * "delivered", "lost" or "rejected".
+	 * 
+	 * @return the status of the package.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the name of the GPS office that last reported the package.
+	 * 
+	 * @return the name of the GPS office.
+	 */
+	public String getOffice() {
+		return office;
+	}
+
+	/**
+	 * Returns the number of times the package has left a GPS office.
+	 * 
+	 * @return the number of hops.
+	 */
+	public int getHops() {
+		return hops;
+	}
+
+	/**
+	 * Returns the time when the package was first reported.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getFirstSeen() {
+		return firstSeen;
+	}
+
+	/**
+	 * Returns the time when the package was last reported.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getLastSeen() {
+		return lastSeen;
+	}
+
+	/**
+	 * Returns a one line description of this package state.
+	 */
+	@Override
+	public String toString() {
+		return "Package number " + trackNumber + " " + status
+				+ ", last reported by " + office + " office after " + hops
+				+ " hops (first seen " + firstSeen + ", last seen " + lastSeen
+				+ ")";
+	}
+}
@@ -0,0 +1,317 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class PackageStateStore is an index from the track number of a package to
+ * its current state, built by the Headquarters from the GPSOfficeEvents it
+ * receives. The index is an open addressing hash table with linear probing
+ * that keeps every field in its own primitive array, so a package costs a few
+ * dozen bytes and no objects. The names of the GPS offices are kept once, in
+ * a table of office IDs.
+ * 
+ * A package that was delivered, lost or rejected keeps that status; an
+ * arrival or departure that is received after it, because the events of
+ * different offices may overtake each other, only updates the hop count.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class PackageStateStore {
+
+	/**
+	 * Status of a package that has arrived at a GPS office.
+	 */
+	private static final byte ARRIVED = 1;
+	/**
+	 * Status of a package that has left a GPS office.
+	 */
+	private static final byte DEPARTED = 2;
+	/**
+	 * Status of a package that was delivered to the destination.
+	 */
+	private static final byte DELIVERED = 3;
+	/**
+	 * Status of a package that was lost.
+	 */
+	private static final byte LOST = 4;
+	/**
+	 * Status of a package that was rejected by a full GPS office.
+	 */
+	private static final byte REJECTED = 5;
+	/**
+	 * Names of the statuses, indexed by status.
+	 */
+	private static final String[] STATUS_NAMES = { null, "arrived",
+			"departed", "delivered", "lost", "rejected" };
+	/**
+	 * Largest fraction of the slots that is used before the table grows.
+	 */
+	private static final double LOAD_FACTOR = 0.75;
+	/**
+	 * Default number of slots.
+	 */
+	private static final int DEFAULT_CAPACITY = 1 << 10;
+	/**
+	 * Number of bytes of one slot of the table: the track number, status,
+	 * office ID, hop count and two times.
+	 */
+	public static final int BYTES_PER_SLOT = 8 + 1 + 4 + 2 + 8 + 8;
+
+	/**
+	 * The track numbers. The last slot is kept for track number 0.
+	 */
+	private long[] keys;
+	/**
+	 * The statuses, with 0 in the free slots.
+	 */
+	private byte[] statuses;
+	/**
+	 * The IDs of the GPS offices that last reported the packages.
+	 */
+	private int[] offices;
+	/**
+	 * The hop counts, which stop at Short.MAX_VALUE.
+	 */
+	private short[] hops;
+	/**
+	 * The times when the packages were first reported.
+	 */
+	private long[] firstSeen;
+	/**
+	 * The times when the packages were last reported.
+	 */
+	private long[] lastSeen;
+	/**
+	 * Number of slots of the hash table, a power of 2.
+	 */
+	private int capacity;
+	/**
+	 * Number of packages in the store.
+	 */
+	private int size;
+	/**
+	 * A map from the name of a GPS office to its ID.
+	 */
+	private Map<String, Integer> officeIds = new HashMap<String, Integer>();
+	/**
+	 * The names of the GPS offices, indexed by ID.
+	 */
+	private List<String> officeNames = new ArrayList<String>();
+
+	/**
+	 * Constructs a new, empty PackageStateStore object.
+	 */
+	public PackageStateStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a new, empty PackageStateStore object.
+	 * 
+	 * @param expected
+	 *            Number of packages expected, to size the table.
+	 */
+	public PackageStateStore(int expected) {
+		int slots = 16;
+		while (slots * LOAD_FACTOR < expected && slots < 1 << 30) {
+			slots *= 2;
+		}
+		allocate(slots);
+	}
+
+	/**
+	 * Updates the state of a package with an event.
+	 * 
+	 * @param event
+	 *            The event.
+	 * @param time
+	 *            Time in milliseconds when the GPS office generated the event.
+	 */
+	public synchronized void record(GPSOfficeEvent event, long time) {
+		byte status;
+		if (event.isRejected()) {
+			status = REJECTED;
+		} else if (event.isLost()) {
+			status = LOST;
+		} else if (event.isDelivered()) {
+			status = DELIVERED;
+		} else if (event.isArrived()) {
+			status = ARRIVED;
+		} else {
+			status = DEPARTED;
+		}
+
+		long key = event.getReceipt().getTrackNumber();
+		int i = slot(key);
+		if (statuses[i] == 0) {
+			if (size >= capacity * LOAD_FACTOR) {
+				allocate(capacity * 2);
+				i = slot(key);
+			}
+			keys[i] = key;
+			firstSeen[i] = time;
+			++size;
+		}
+		if (status == DEPARTED && hops[i] < Short.MAX_VALUE) {
+			++hops[i];
+		}
+		// The statuses from DELIVERED on are final.
+		if (statuses[i] < DELIVERED) {
+			statuses[i] = status;
+			offices[i] = officeId(event.getCurrentOffice());
+			lastSeen[i] = time;
+		}
+	}
+
+	/**
+	 * Returns the state of a package.
+	 * 
+	 * @param trackNumber
+	 *            The track number of the package.
+	 * @return The state of the package, or null if it has not been reported.
+	 */
+	public synchronized PackageState lookup(long trackNumber) {
+		int i = slot(trackNumber);
+		return statuses[i] == 0 ? null : state(i);
+	}
+
+	/**
+	 * Returns the states of the packages with track numbers in a range. Every
+	 * slot of the table is visited, so the time taken grows with the number
+	 * of packages in the store, not with the number returned.
+	 * 
+	 * @param from
+	 *            The smallest track number, inclusive.
+	 * @param to
+	 *            The largest track number, inclusive.
+	 * @param limit
+	 *            Largest number of states to return.
+	 * @return The states of at most limit packages with the smallest track
+	 *         numbers in the range, in order of track number.
+	 */
+	public synchronized List<PackageState> range(long from, long to, int limit) {
+		long[] found = new long[16];
+		int count = 0;
+		for (int i = 0; i <= capacity; ++i) {
+			if (statuses[i] != 0 && keys[i] >= from && keys[i] <= to) {
+				if (count == found.length) {
+					found = Arrays.copyOf(found, count * 2);
+				}
+				found[count++] = keys[i];
+			}
+		}
+		Arrays.sort(found, 0, count);
+		List<PackageState> result = new ArrayList<PackageState>(Math.min(
+				count, limit));
+		for (int j = 0; j < count && j < limit; ++j) {
+			result.add(state(slot(found[j])));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of packages in the store.
+	 * 
+	 * @return the number of packages.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the memory taken by the table, not counting the names of the
+	 * GPS offices.
+	 * 
+	 * @return the memory in bytes.
+	 */
+	public synchronized long memory() {
+		return (long) (capacity + 1) * BYTES_PER_SLOT;
+	}
+
+	/**
+	 * Returns the slot of a track number: the slot that holds it, or the free
+	 * slot where it would be put.
+	 */
+	private int slot(long key) {
+		if (key == 0) {
+			return capacity;
+		}
+		int mask = capacity - 1;
+		int i = hash(key) & mask;
+		while (statuses[i] != 0 && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the state in a slot.
+	 */
+	private PackageState state(int i) {
+		return new PackageState(keys[i], STATUS_NAMES[statuses[i]],
+				officeNames.get(offices[i]), hops[i], firstSeen[i],
+				lastSeen[i]);
+	}
+
+	/**
+	 * Returns the ID of a GPS office, giving it a new one if it has none.
+	 */
+	private int officeId(String name) {
+		Integer id = officeIds.get(name);
+		if (id == null) {
+			id = officeNames.size();
+			officeIds.put(name, id);
+			officeNames.add(name);
+		}
+		return id;
+	}
+
+	/**
+	 * Replaces the table with one of a given number of slots and moves the
+	 * packages into it.
+	 */
+	private void allocate(int slots) {
+		long[] oldKeys = keys;
+		byte[] oldStatuses = statuses;
+		int[] oldOffices = offices;
+		short[] oldHops = hops;
+		long[] oldFirstSeen = firstSeen;
+		long[] oldLastSeen = lastSeen;
+		int oldCapacity = capacity;
+
+		capacity = slots;
+		keys = new long[slots + 1];
+		statuses = new byte[slots + 1];
+		offices = new int[slots + 1];
+		hops = new short[slots + 1];
+		firstSeen = new long[slots + 1];
+		lastSeen = new long[slots + 1];
+		if (oldKeys == null) {
+			return;
+		}
+		for (int j = 0; j <= oldCapacity; ++j) {
+			if (oldStatuses[j] != 0) {
+				int i = slot(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				statuses[i] = oldStatuses[j];
+				offices[i] = oldOffices[j];
+				hops[i] = oldHops[j];
+				firstSeen[i] = oldFirstSeen[j];
+				lastSeen[i] = oldLastSeen[j];
+			}
+		}
+	}
+
+	/**
+	 * Mixes the bits of a track number. The low bits of a track number hold
+	 * the node ID of the GPS office and are the same for all its packages.
+	 */
+	private static int hash(long key) {
+		key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+		key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return (int) (key ^ (key >>> 33));
+	}
+}
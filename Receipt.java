@@ -1,26 +1,55 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
  * Class Receipt is a representation of a receipt of a package that is being
  * beamed in the Geographic Package System.
  * 
+ * A receipt is written in a compact form: a format byte, the track number and
+ * the destination coordinates, which are sent as floats when that loses
+ * nothing, followed by the route of the package if it has one.
+ * 
+ * A package sent with source routing carries its route: the names of the
+ * GPS offices it passes through, from the office that accepted it to the
+ * office that delivers it.
+ * 
  * @author Chinmay Dani
  * 
  */
 public class Receipt implements Serializable {
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
+	/**
+	 * Format byte of a receipt whose coordinates are sent as floats.
+	 */
+	private static final byte FLOAT_COORDINATES = 0;
+	/**
+	 * Format byte of a receipt whose coordinates are sent as doubles.
+	 */
+	private static final byte DOUBLE_COORDINATES = 1;
+	/**
+	 * Flag of the format byte of a receipt that is followed by a route.
+	 */
+	private static final byte ROUTE = 2;
 	/**
 	 * The unique track number that identifies a package.
 	 */
-	private final long trackNumber;
+	private transient long trackNumber;
 	/**
 	 * The X coordinate of the destination of the package.
 	 */
-	private double x;
+	private transient double x;
 	/**
-	 * The X coordinate of the destination of the package.
+	 * The Y coordinate of the destination of the package.
+	 */
+	private transient double y;
+	/**
+	 * The names of the GPS offices on the route of the package, or null if
+	 * it is routed one hop at a time.
 	 */
-	private double y;
+	private transient String[] route;
 
 	/**
 	 * Constructs a new Receipt object.
@@ -38,6 +67,24 @@ public class Receipt implements Serializable {
 		this.trackNumber = trackNumber;
 	}
 
+	/**
+	 * Constructs a new Receipt object for a package with a route.
+	 * 
+	 * @param trackNumber
+	 *            The unique track number that identifies a package.
+	 * @param x
+	 *            The X coordinate of the destination of the package.
+	 * @param y
+	 *            The Y coordinate of the destination of the package.
+	 * @param route
+	 *            The names of the GPS offices on the route of the package,
+	 *            or null if it is routed one hop at a time.
+	 */
+	public Receipt(long trackNumber, double x, double y, String[] route) {
+		this(trackNumber, x, y);
+		this.route = route;
+	}
+
 	/**
 	 * Returns the track number of the pacakge.
 	 * 
@@ -64,4 +111,142 @@ public class Receipt implements Serializable {
 	public double getY() {
 		return y;
 	}
+
+	/**
+	 * Returns the names of the GPS offices on the route of the package.
+	 * 
+	 * @return the route, or null if the package is routed one hop at a time.
+	 */
+	public String[] getRoute() {
+		return route;
+	}
+
+	/**
+	 * Returns the GPS office on the route of the package after a given one.
+	 * 
+	 * @param office
+	 *            Name of the GPS office.
+	 * @return the name of the next GPS office, the given name if it is the
+	 *         last on the route, or null if the package has no route or the
+	 *         office is not on it.
+	 */
+	public String nextHop(String office) {
+		if (route == null) {
+			return null;
+		}
+		for (int i = 0; i < route.length; ++i) {
+			if (route[i].equals(office)) {
+				return i + 1 < route.length ? route[i + 1] : office;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the fields of this receipt, with its route, to a stream.
+	 * 
+	 * @param out
+	 *            The stream.
+	 * @throws IOException
+	 *             Thrown if an IO error occurs.
+	 */
+	void writeFields(ObjectOutputStream out) throws IOException {
+		writeFields(out, true);
+	}
+
+	/**
+	 * Writes the fields of this receipt to a stream.
+	 * 
+	 * @param out
+	 *            The stream.
+	 * @param withRoute
+	 *            True if the route is written, false if it is left out.
+	 * @throws IOException
+	 *             Thrown if an IO error occurs.
+	 */
+	void writeFields(ObjectOutputStream out, boolean withRoute)
+			throws IOException {
+		boolean floats = (float) x == x && (float) y == y;
+		boolean routed = withRoute && route != null;
+		out.writeByte((floats ? FLOAT_COORDINATES : DOUBLE_COORDINATES)
+				| (routed ? ROUTE : 0));
+		out.writeLong(trackNumber);
+		if (floats) {
+			out.writeFloat((float) x);
+			out.writeFloat((float) y);
+		} else {
+			out.writeDouble(x);
+			out.writeDouble(y);
+		}
+		if (routed) {
+			out.writeShort(route.length);
+			for (String office : route) {
+				out.writeUTF(office);
+			}
+		}
+	}
+
+	/**
+	 * Reads the fields of this receipt from a stream.
+	 * 
+	 * @param in
+	 *            The stream.
+	 * @throws IOException
+	 *             Thrown if an IO error occurs or the format is unknown.
+	 */
+	void readFields(ObjectInputStream in) throws IOException {
+		byte format = in.readByte();
+		trackNumber = in.readLong();
+		byte coordinates = (byte) (format & ~ROUTE);
+		if (coordinates == FLOAT_COORDINATES) {
+			x = in.readFloat();
+			y = in.readFloat();
+		} else if (coordinates == DOUBLE_COORDINATES) {
+			x = in.readDouble();
+			y = in.readDouble();
+		} else {
+			throw new InvalidObjectException("Receipt: Invalid format: "
+					+ format);
+		}
+		route = null;
+		if ((format & ROUTE) != 0) {
+			int length = in.readUnsignedShort();
+			route = new String[length];
+			for (int i = 0; i < length; ++i) {
+				route[i] = in.readUTF().intern();
+			}
+		}
+	}
+
+	/**
+	 * Reads a receipt that was written by writeFields.
+	 * 
+	 * @param in
+	 *            The stream.
+	 * @return The receipt.
+	 * @throws IOException
+	 *             Thrown if an IO error occurs or the format is unknown.
+	 */
+	static Receipt read(ObjectInputStream in) throws IOException {
+		Receipt receipt = new Receipt(0, 0, 0);
+		receipt.readFields(in);
+		return receipt;
+	}
+
+	/**
+	 * Writes this receipt in the compact form.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		writeFields(out);
+	}
+
+	/**
+	 * Reads this receipt in the compact form.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		readFields(in);
+	}
 }
@@ -0,0 +1,319 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class SpatialGrid is a spatial index of named points in the plane. The plane
+ * is divided into square cells of a fixed size and every point is kept in the
+ * cell that contains it, so that nearest neighbor and range queries only visit
+ * the cells around the query location.
+ * 
+ * This class is not thread safe.
+ * 
+ * @author Chinmay Dani
+ * 
+ * @param <T>
+ *            The type of the values stored with the points.
+ */
+public class SpatialGrid<T> {
+
+	/**
+	 * The length of the side of a cell.
+	 */
+	private final double cellSize;
+	/**
+	 * A map from a cell key to the points in that cell.
+	 */
+	private final Map<Long, List<Point<T>>> cells = new HashMap<Long, List<Point<T>>>();
+	/**
+	 * A map from a name to its point.
+	 */
+	private final Map<String, Point<T>> points = new HashMap<String, Point<T>>();
+	/**
+	 * The range of the cell columns and rows that have ever held a point.
+	 */
+	private int minCol = Integer.MAX_VALUE, maxCol = Integer.MIN_VALUE,
+			minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+
+	/**
+	 * Constructs a new, empty SpatialGrid object.
+	 * 
+	 * @param cellSize
+	 *            The length of the side of a cell.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the cell size is not positive.
+	 */
+	public SpatialGrid(double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException(
+					"SpatialGrid: Invalid cell size: " + cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Adds a point to the index, replacing any point with the same name.
+	 * 
+	 * @param name
+	 *            Name of the point.
+	 * @param x
+	 *            X coordinate of the point.
+	 * @param y
+	 *            Y coordinate of the point.
+	 * @param value
+	 *            The value stored with the point.
+	 */
+	public void put(String name, double x, double y, T value) {
+		remove(name);
+		Point<T> p = new Point<T>(name, x, y, value);
+		int col = column(x), row = row(y);
+		Long key = key(col, row);
+		List<Point<T>> cell = cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<Point<T>>(2);
+			cells.put(key, cell);
+		}
+		cell.add(p);
+		points.put(name, p);
+		minCol = Math.min(minCol, col);
+		maxCol = Math.max(maxCol, col);
+		minRow = Math.min(minRow, row);
+		maxRow = Math.max(maxRow, row);
+	}
+
+	/**
+	 * Removes a point from the index.
+	 * 
+	 * @param name
+	 *            Name of the point.
+	 * @return The value stored with the point, or null if there is no such
+	 *         point.
+	 */
+	public T remove(String name) {
+		Point<T> p = points.remove(name);
+		if (p == null) {
+			return null;
+		}
+		Long key = key(column(p.x), row(p.y));
+		List<Point<T>> cell = cells.get(key);
+		cell.remove(p);
+		if (cell.isEmpty()) {
+			cells.remove(key);
+		}
+		return p.value;
+	}
+
+	/**
+	 * Returns the value stored with a point.
+	 * 
+	 * @param name
+	 *            Name of the point.
+	 * @return The value, or null if there is no such point.
+	 */
+	public T get(String name) {
+		Point<T> p = points.get(name);
+		return p == null ? null : p.value;
+	}
+
+	/**
+	 * Returns the number of points in the index.
+	 * 
+	 * @return the number of points.
+	 */
+	public int size() {
+		return points.size();
+	}
+
+	/**
+	 * Returns the values of all the points in the index.
+	 * 
+	 * @return a new list of the values.
+	 */
+	public List<T> values() {
+		List<T> result = new ArrayList<T>(points.size());
+		for (Point<T> p : points.values()) {
+			result.add(p.value);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the points closest to a location. The cells are visited in
+	 * square rings of increasing size around the location until no unvisited
+	 * cell can hold a closer point.
+	 * 
+	 * @param x
+	 *            X coordinate of the location.
+	 * @param y
+	 *            Y coordinate of the location.
+	 * @param k
+	 *            The number of points to find.
+	 * @param exclude
+	 *            Name of a point that is not returned, or null.
+	 * @return The values of at most k points, closest first.
+	 */
+	public List<T> nearest(double x, double y, int k, String exclude) {
+		List<Point<T>> best = new ArrayList<Point<T>>(k + 1);
+		List<Double> bestDistance = new ArrayList<Double>(k + 1);
+		if (k > 0 && !points.isEmpty()) {
+			int col = column(x), row = row(y);
+			int first = Math.max(Math.max(minCol - col, col - maxCol),
+					Math.max(minRow - row, row - maxRow));
+			int last = Math.max(Math.max(col - minCol, maxCol - col),
+					Math.max(row - minRow, maxRow - row));
+			for (int r = Math.max(first, 0); r <= last; ++r) {
+				for (int c = col - r; c <= col + r; ++c) {
+					boolean edge = c == col - r || c == col + r;
+					for (int w = row - r; w <= row + r; w += edge ? 1 : 2 * r) {
+						List<Point<T>> cell = cells.get(key(c, w));
+						if (cell == null) {
+							continue;
+						}
+						for (Point<T> p : cell) {
+							if (!p.name.equals(exclude)) {
+								insert(best, bestDistance, k, p,
+										p.distanceSq(x, y));
+							}
+						}
+					}
+				}
+				// Every point outside this ring is at least r cells away.
+				double reach = r * cellSize;
+				if (best.size() == k
+						&& bestDistance.get(k - 1) <= reach * reach) {
+					break;
+				}
+			}
+		}
+		List<T> result = new ArrayList<T>(best.size());
+		for (Point<T> p : best) {
+			result.add(p.value);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the points within a distance of a location.
+	 * 
+	 * @param x
+	 *            X coordinate of the location.
+	 * @param y
+	 *            Y coordinate of the location.
+	 * @param distance
+	 *            The distance from the location.
+	 * @return The values of the points, in no particular order.
+	 */
+	public List<T> within(double x, double y, double distance) {
+		List<T> result = new ArrayList<T>();
+		if (points.isEmpty()) {
+			return result;
+		}
+		int fromCol = Math.max(column(x - distance), minCol);
+		int toCol = Math.min(column(x + distance), maxCol);
+		int fromRow = Math.max(row(y - distance), minRow);
+		int toRow = Math.min(row(y + distance), maxRow);
+		double distanceSq = distance * distance;
+		for (int c = fromCol; c <= toCol; ++c) {
+			for (int w = fromRow; w <= toRow; ++w) {
+				List<Point<T>> cell = cells.get(key(c, w));
+				if (cell == null) {
+					continue;
+				}
+				for (Point<T> p : cell) {
+					if (p.distanceSq(x, y) <= distanceSq) {
+						result.add(p.value);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Inserts a point into a list of the closest points found so far, which
+	 * is kept sorted and no longer than k.
+	 */
+	private static <T> void insert(List<Point<T>> best,
+			List<Double> bestDistance, int k, Point<T> p, double d) {
+		int i = best.size();
+		while (i > 0 && bestDistance.get(i - 1) > d) {
+			--i;
+		}
+		if (i < k) {
+			best.add(i, p);
+			bestDistance.add(i, d);
+			if (best.size() > k) {
+				best.remove(k);
+				bestDistance.remove(k);
+			}
+		}
+	}
+
+	/**
+	 * Returns the column of the cell that contains an X coordinate.
+	 */
+	private int column(double x) {
+		return (int) Math.floor(x / cellSize);
+	}
+
+	/**
+	 * Returns the row of the cell that contains a Y coordinate.
+	 */
+	private int row(double y) {
+		return (int) Math.floor(y / cellSize);
+	}
+
+	/**
+	 * Returns the key of a cell. The hash code of a Long is the exclusive or
+	 * of its halves, so the row is mixed with a multiple of the column;
+	 * otherwise the cells of a grid would share a few hash buckets.
+	 */
+	private static Long key(int col, int row) {
+		return ((long) col << 32) | ((row ^ col * 0x9e3779b9) & 0xffffffffL);
+	}
+
+	/**
+	 * Class Point is a named point in the index.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 * @param <T>
+	 *            The type of the value stored with the point.
+	 */
+	private static class Point<T> {
+		/**
+		 * Name of the point.
+		 */
+		public final String name;
+		/**
+		 * X coordinate of the point.
+		 */
+		public final double x;
+		/**
+		 * Y coordinate of the point.
+		 */
+		public final double y;
+		/**
+		 * The value stored with the point.
+		 */
+		public final T value;
+
+		/**
+		 * Construct a new Point object.
+		 */
+		public Point(String name, double x, double y, T value) {
+			this.name = name;
+			this.x = x;
+			this.y = y;
+			this.value = value;
+		}
+
+		/**
+		 * Returns the squared distance from this point to a location.
+		 */
+		public double distanceSq(double x, double y) {
+			return (x - this.x) * (x - this.x) + (y - this.y) * (y - this.y);
+		}
+	}
+}
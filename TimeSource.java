@@ -0,0 +1,27 @@
+/**
+ * Interface TimeSource is a clock that tells the current time. A GPS office
+ * reads the wall clock through it, and a simulated office its virtual clock.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public interface TimeSource {
+
+	/**
+	 * The wall clock of the JVM.
+	 */
+	public static final TimeSource SYSTEM = new TimeSource() {
+		@Override
+		public long now() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * Returns the current time.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long now();
+
+}
@@ -0,0 +1,313 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class Topology is a versioned snapshot of the neighbor graph of the GPS
+ * offices: the location of every office and the offices it hands packages
+ * to. A GPS office that uses source routing plans the whole route of a
+ * package on it, with a shortest path search that minimizes the distance
+ * travelled, instead of choosing every hop greedily.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class Topology implements Serializable {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Version number of this snapshot.
+	 */
+	private final long version;
+	/**
+	 * Names of the GPS offices.
+	 */
+	private final String[] names;
+	/**
+	 * X coordinates of the GPS offices.
+	 */
+	private final double[] xs;
+	/**
+	 * Y coordinates of the GPS offices.
+	 */
+	private final double[] ys;
+	/**
+	 * The neighbors of every GPS office, as indexes of the offices.
+	 */
+	private final int[][] neighbors;
+	/**
+	 * A map from the name of a GPS office to its index, built when it is
+	 * first needed.
+	 */
+	private transient Map<String, Integer> index;
+
+	/**
+	 * Constructs a new Topology object.
+	 * 
+	 * @param version
+	 *            Version number of the snapshot.
+	 * @param offices
+	 *            The GPS offices.
+	 * @param neighbors
+	 *            The names of the neighbors of every GPS office, in the order
+	 *            of the offices. Names of offices that are not in the
+	 *            snapshot are left out.
+	 */
+	public Topology(long version, List<GPSOfficeDescriptor> offices,
+			List<List<String>> neighbors) {
+		this.version = version;
+		int n = offices.size();
+		names = new String[n];
+		xs = new double[n];
+		ys = new double[n];
+		for (int i = 0; i < n; ++i) {
+			GPSOfficeDescriptor d = offices.get(i);
+			names[i] = d.getName();
+			xs[i] = d.getX();
+			ys[i] = d.getY();
+		}
+		this.neighbors = new int[n][];
+		for (int i = 0; i < n; ++i) {
+			List<String> list = neighbors.get(i);
+			int[] edges = new int[list.size()];
+			int count = 0;
+			for (String name : list) {
+				int j = indexOf(name);
+				if (j >= 0) {
+					edges[count++] = j;
+				}
+			}
+			this.neighbors[i] = Arrays.copyOf(edges, count);
+		}
+	}
+
+	/**
+	 * Constructs a snapshot in which every GPS office has the neighbors the
+	 * offices choose for themselves.
+	 * 
+	 * @param version
+	 *            Version number of the snapshot.
+	 * @param offices
+	 *            The GPS offices.
+	 * @param selector
+	 *            Chooses the neighbors of an office.
+	 * @return The snapshot.
+	 */
+	public static Topology of(long version,
+			Collection<GPSOfficeDescriptor> offices, NeighborSelector selector) {
+		List<GPSOfficeDescriptor> list = new ArrayList<GPSOfficeDescriptor>(offices);
+		double[] bounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (GPSOfficeDescriptor d : list) {
+			bounds[0] = Math.min(bounds[0], d.getX());
+			bounds[1] = Math.min(bounds[1], d.getY());
+			bounds[2] = Math.max(bounds[2], d.getX());
+			bounds[3] = Math.max(bounds[3], d.getY());
+		}
+		// About one office per cell.
+		double area = Math.max((bounds[2] - bounds[0])
+				* (bounds[3] - bounds[1]), 1);
+		SpatialGrid<GPSOfficeDescriptor> grid = new SpatialGrid<GPSOfficeDescriptor>(
+				Math.sqrt(area / Math.max(list.size(), 1)));
+		for (GPSOfficeDescriptor d : list) {
+			grid.put(d.getName(), d.getX(), d.getY(), d);
+		}
+		double[] clip = NeighborSelector.clipBounds(bounds, list.size());
+		List<List<String>> neighbors = new ArrayList<List<String>>(list.size());
+		for (GPSOfficeDescriptor d : list) {
+			List<String> names = new ArrayList<String>();
+			for (GPSOfficeDescriptor neighbor : selector.select(d,
+					NeighborSelector.candidates(grid, d.getName(), clip)).neighbors) {
+				names.add(neighbor.getName());
+			}
+			neighbors.add(names);
+		}
+		return new Topology(version, list, neighbors);
+	}
+
+	/**
+	 * Returns the version number of this snapshot.
+	 * 
+	 * @return the version number.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of GPS offices in this snapshot.
+	 * 
+	 * @return the number of offices.
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the index of a GPS office.
+	 * 
+	 * @param name
+	 *            Name of the GPS office.
+	 * @return the index, or -1 if the office is not in this snapshot.
+	 */
+	public synchronized int indexOf(String name) {
+		if (index == null) {
+			index = new HashMap<String, Integer>(names.length * 2);
+			for (int i = 0; i < names.length; ++i) {
+				index.put(names[i], i);
+			}
+		}
+		Integer i = index.get(name);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Returns the GPS office closest to a location.
+	 * 
+	 * @param x
+	 *            X coordinate of the location.
+	 * @param y
+	 *            Y coordinate of the location.
+	 * @return the index of the office, or -1 if there are no offices.
+	 */
+	public int closest(double x, double y) {
+		int best = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < names.length; ++i) {
+			double dx = x - xs[i], dy = y - ys[i];
+			double d = dx * dx + dy * dy;
+			if (d < bestDistance) {
+				best = i;
+				bestDistance = d;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the shortest paths from a GPS office to all the others along the
+	 * neighbor graph, measured by the distance travelled.
+	 * 
+	 * @param source
+	 *            Index of the GPS office.
+	 * @return For every office, the index of the office before it on the
+	 *         shortest path, the source for the source itself, or -1 if the
+	 *         office cannot be reached.
+	 */
+	public int[] shortestPaths(int source) {
+		int n = names.length;
+		int[] previous = new int[n];
+		double[] distance = new double[n];
+		Arrays.fill(previous, -1);
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		previous[source] = source;
+		distance[source] = 0;
+
+		// A binary heap of (distance, office) pairs; an office may be in it
+		// more than once, and only its shortest entry counts.
+		int capacity = 16;
+		double[] keys = new double[capacity];
+		int[] nodes = new int[capacity];
+		int size = 0;
+		keys[size] = 0;
+		nodes[size++] = source;
+		while (size > 0) {
+			double d = keys[0];
+			int u = nodes[0];
+			--size;
+			if (size > 0) {
+				siftDown(keys, nodes, size, keys[size], nodes[size]);
+			}
+			if (d > distance[u]) {
+				continue;
+			}
+			for (int v : neighbors[u]) {
+				double dx = xs[u] - xs[v], dy = ys[u] - ys[v];
+				double dv = d + Math.sqrt(dx * dx + dy * dy);
+				if (dv < distance[v]) {
+					distance[v] = dv;
+					previous[v] = u;
+					if (size == capacity) {
+						capacity *= 2;
+						keys = Arrays.copyOf(keys, capacity);
+						nodes = Arrays.copyOf(nodes, capacity);
+					}
+					siftUp(keys, nodes, size++, dv, v);
+				}
+			}
+		}
+		return previous;
+	}
+
+	/**
+	 * Returns the route to a GPS office along shortest paths.
+	 * 
+	 * @param previous
+	 *            The shortest paths from the first office of the route, as
+	 *            returned by shortestPaths.
+	 * @param target
+	 *            Index of the last office of the route.
+	 * @return The names of the offices on the route, first to last, or null
+	 *         if the target cannot be reached.
+	 */
+	public String[] route(int[] previous, int target) {
+		if (target < 0 || previous[target] < 0) {
+			return null;
+		}
+		int length = 1;
+		for (int v = target; previous[v] != v; v = previous[v]) {
+			++length;
+		}
+		String[] route = new String[length];
+		for (int v = target, i = length - 1; i >= 0; v = previous[v], --i) {
+			route[i] = names[v];
+		}
+		return route;
+	}
+
+	/**
+	 * Moves an entry up the heap from a free slot to its place.
+	 */
+	private static void siftUp(double[] keys, int[] nodes, int i, double key,
+			int node) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			keys[i] = keys[parent];
+			nodes[i] = nodes[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		nodes[i] = node;
+	}
+
+	/**
+	 * Moves an entry down the heap from the root to its place.
+	 */
+	private static void siftDown(double[] keys, int[] nodes, int size,
+			double key, int node) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && keys[child + 1] < keys[child]) {
+				++child;
+			}
+			if (key <= keys[child]) {
+				break;
+			}
+			keys[i] = keys[child];
+			nodes[i] = nodes[child];
+			i = child;
+		}
+		keys[i] = key;
+		nodes[i] = node;
+	}
+}
@@ -0,0 +1,158 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class TrackNumberGenerator issues the track numbers of the packages accepted
+ * by one GPS office. A track number is a positive long made of three parts,
+ * from the most to the least significant bits:
+ * 
+ * 40 bits : milliseconds since 2012-01-01 00:00 UTC, enough for 34 years. 11
+ * bits : a sequence number within the millisecond, enough for 2 million
+ * numbers a second. 12 bits : the node ID of the GPS office, enough for 4096
+ * offices.
+ * 
+ * The timestamp and the sequence number together form one counter that is
+ * advanced with a compare-and-set, so the generator does not block. When more
+ * than 2048 numbers are asked for in one millisecond the counter runs ahead
+ * of the clock instead of waiting for it, by at most MAX_LEAD milliseconds;
+ * only a burst that long makes the callers wait for the clock. Numbers from
+ * one generator are therefore always increasing, and numbers from generators
+ * with different node IDs never collide.
+ * 
+ * A new generator starts MAX_LEAD milliseconds ahead of the clock, so that it
+ * cannot issue a number again that an earlier generator with the same node ID
+ * issued before it stopped, as when an office is restarted with the same
+ * node ID or is handed one that another office held.
+ * 
+ * Every GPS office must have a different node ID. It is read from the
+ * "gps.nodeId" system property (0 to 4095), or else assigned by the GPS
+ * office directory; an office that has neither does not start.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class TrackNumberGenerator {
+
+	/**
+	 * Name of the system property that sets the node ID.
+	 */
+	public static final String NODE_ID_PROPERTY = "gps.nodeId";
+	/**
+	 * The start of the time counted by the track numbers, 2012-01-01 00:00
+	 * UTC.
+	 */
+	private static final long EPOCH = 1325376000000L;
+	/**
+	 * Number of bits of the node ID.
+	 */
+	private static final int NODE_BITS = 12;
+	/**
+	 * Number of bits of the sequence number.
+	 */
+	private static final int SEQUENCE_BITS = 11;
+	/**
+	 * Largest node ID.
+	 */
+	public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+	/**
+	 * Largest time in milliseconds the track numbers run ahead of the clock.
+	 */
+	public static final long MAX_LEAD = 100;
+
+	/**
+	 * The node ID of this generator.
+	 */
+	private final int nodeId;
+	/**
+	 * The timestamp and sequence number of the last track number issued.
+	 */
+	private final AtomicLong last;
+
+	/**
+	 * Constructs a new TrackNumberGenerator object.
+	 * 
+	 * @param nodeId
+	 *            The node ID, from 0 to MAX_NODE_ID.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the node ID is out of range.
+	 */
+	public TrackNumberGenerator(int nodeId) {
+		if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+			throw new IllegalArgumentException(
+					"TrackNumberGenerator: Invalid node ID: " + nodeId);
+		}
+		this.nodeId = nodeId;
+		last = new AtomicLong((System.currentTimeMillis() - EPOCH + MAX_LEAD)
+				<< SEQUENCE_BITS);
+	}
+
+	/**
+	 * Constructs a new TrackNumberGenerator object with the node ID of the
+	 * "gps.nodeId" system property.
+	 * 
+	 * @return The new generator, or null if the system property is not set.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the system property is not a valid node ID.
+	 */
+	public static TrackNumberGenerator fromProperty() {
+		String property = System.getProperty(NODE_ID_PROPERTY);
+		if (property == null) {
+			return null;
+		}
+		try {
+			return new TrackNumberGenerator(Integer.parseInt(property));
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("TrackNumberGenerator: Invalid "
+					+ NODE_ID_PROPERTY + ": " + property);
+		}
+	}
+
+	/**
+	 * Returns the node ID of this generator.
+	 * 
+	 * @return the node ID.
+	 */
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Issues a new track number.
+	 * 
+	 * @return A track number that this generator has not issued before.
+	 */
+	public long next() {
+		for (;;) {
+			long now = System.currentTimeMillis() - EPOCH;
+			long prev = last.get();
+			long next = Math.max(prev + 1, now << SEQUENCE_BITS);
+			if ((next >>> SEQUENCE_BITS) > now + MAX_LEAD) {
+				// The numbers of the next MAX_LEAD milliseconds are used up.
+				Thread.yield();
+			} else if (last.compareAndSet(prev, next)) {
+				return (next << NODE_BITS) | nodeId;
+			}
+		}
+	}
+
+	/**
+	 * Returns the time at which a track number was issued.
+	 * 
+	 * @param trackNumber
+	 *            The track number.
+	 * @return The time in milliseconds since 1970-01-01 00:00 UTC.
+	 */
+	public static long timeOf(long trackNumber) {
+		return (trackNumber >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+	}
+
+	/**
+	 * Returns the node ID of the GPS office that issued a track number.
+	 * 
+	 * @param trackNumber
+	 *            The track number.
+	 * @return The node ID.
+	 */
+	public static int nodeOf(long trackNumber) {
+		return (int) (trackNumber & MAX_NODE_ID);
+	}
+}
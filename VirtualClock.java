@@ -0,0 +1,298 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class VirtualClock is a ScheduledExecutorService that runs its tasks in
+ * virtual time on the thread that drives it. A task scheduled after a delay
+ * runs when the clock reaches its time; the clock jumps from one task to the
+ * next instead of waiting, so a GPS office given a VirtualClock as its
+ * executor and scheduler examines a package in no time at all while its
+ * events still carry the 3 seconds of virtual time.
+ * 
+ * Tasks due at the same time run in the order they were scheduled, so a run
+ * is repeatable. Time is kept in milliseconds from 0.
+ * 
+ * An exception thrown by a Runnable is thrown on to the thread that drives
+ * the clock, as no one else would see it; an exception thrown by a Callable
+ * is left in its future for the caller.
+ * 
+ * @author Chinmay Dani
+ * 
+ */
+public class VirtualClock extends AbstractExecutorService implements
+		ScheduledExecutorService, TimeSource {
+
+	/**
+	 * The tasks waiting to run, earliest first.
+	 */
+	private final PriorityQueue<Task<?>> queue = new PriorityQueue<Task<?>>();
+	/**
+	 * The current virtual time in milliseconds.
+	 */
+	private long now;
+	/**
+	 * Sequence number of the next task scheduled.
+	 */
+	private long sequence;
+	/**
+	 * A flag to indicate if the clock was shut down.
+	 */
+	private boolean shutdown;
+
+	/**
+	 * Returns the current virtual time.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	@Override
+	public synchronized long now() {
+		return now;
+	}
+
+	/**
+	 * Returns the number of tasks waiting to run.
+	 * 
+	 * @return the number of tasks.
+	 */
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Runs the earliest task, advancing the clock to its time.
+	 * 
+	 * @return True if a task was run, false if there are none.
+	 * @throws RuntimeException
+	 *             Thrown if the task is a Runnable that threw one.
+	 * @throws Error
+	 *             Thrown if the task is a Runnable that threw one.
+	 */
+	public boolean runNext() {
+		Task<?> task;
+		synchronized (this) {
+			task = queue.poll();
+			if (task == null) {
+				return false;
+			}
+			now = Math.max(now, task.time);
+		}
+		task.run();
+		task.rethrow();
+		return true;
+	}
+
+	/**
+	 * Runs the tasks due up to a time and advances the clock to it.
+	 * 
+	 * @param time
+	 *            The time in milliseconds.
+	 */
+	public void runUntil(long time) {
+		while (true) {
+			synchronized (this) {
+				Task<?> task = queue.peek();
+				if (task == null || task.time > time) {
+					now = Math.max(now, time);
+					return;
+				}
+			}
+			runNext();
+		}
+	}
+
+	/**
+	 * Schedules a task to run at the current time.
+	 */
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay,
+			TimeUnit unit) {
+		return enqueue(new Task<Object>(command, time(delay, unit), 0));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay,
+			TimeUnit unit) {
+		return enqueue(new Task<V>(callable, time(delay, unit), 0));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+			long initialDelay, long period, TimeUnit unit) {
+		return enqueue(new Task<Object>(command, time(initialDelay, unit),
+				Math.max(unit.toMillis(period), 1)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+			long initialDelay, long delay, TimeUnit unit) {
+		// Tasks take no virtual time, so a fixed delay is a fixed rate.
+		return scheduleAtFixedRate(command, initialDelay, delay, unit);
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		shutdown = true;
+	}
+
+	@Override
+	public synchronized List<Runnable> shutdownNow() {
+		shutdown = true;
+		List<Runnable> tasks = new ArrayList<Runnable>(queue);
+		queue.clear();
+		return tasks;
+	}
+
+	@Override
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public synchronized boolean isTerminated() {
+		return shutdown && queue.isEmpty();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return isTerminated();
+	}
+
+	/**
+	 * Returns the virtual time after a delay from now.
+	 */
+	private synchronized long time(long delay, TimeUnit unit) {
+		return now + Math.max(unit.toMillis(delay), 0);
+	}
+
+	/**
+	 * Adds a task to the queue.
+	 */
+	private synchronized <V> Task<V> enqueue(Task<V> task) {
+		if (!shutdown) {
+			task.sequence = sequence++;
+			queue.add(task);
+		}
+		return task;
+	}
+
+	/**
+	 * Class Task is a task of a VirtualClock with the time it is due.
+	 * 
+	 * @author Chinmay Dani
+	 * 
+	 * @param <V>
+	 *            The type of the result of the task.
+	 */
+	private class Task<V> extends FutureTask<V> implements
+			RunnableScheduledFuture<V> {
+		/**
+		 * The time in milliseconds when the task is due.
+		 */
+		public long time;
+		/**
+		 * Sequence number of the task, which orders tasks due at the same
+		 * time.
+		 */
+		public long sequence;
+		/**
+		 * Time in milliseconds between two runs of a periodic task, or 0.
+		 */
+		private final long period;
+		/**
+		 * True if the task is a Runnable, whose exceptions are thrown on.
+		 */
+		private final boolean runnable;
+
+		/**
+		 * Construct a new Task object that runs a Callable.
+		 */
+		public Task(Callable<V> callable, long time, long period) {
+			super(callable);
+			this.time = time;
+			this.period = period;
+			this.runnable = false;
+		}
+
+		/**
+		 * Construct a new Task object that runs a Runnable.
+		 */
+		public Task(Runnable command, long time, long period) {
+			super(command, null);
+			this.time = time;
+			this.period = period;
+			this.runnable = true;
+		}
+
+		/**
+		 * Throws the exception of a Runnable that failed.
+		 */
+		public void rethrow() {
+			if (!runnable || !isDone() || isCancelled()) {
+				return;
+			}
+			try {
+				get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+
+		@Override
+		public boolean isPeriodic() {
+			return period > 0;
+		}
+
+		@Override
+		public void run() {
+			if (period == 0) {
+				super.run();
+			} else if (runAndReset()) {
+				time += period;
+				enqueue(this);
+			}
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - now(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			if (o instanceof Task) {
+				Task<?> t = (Task<?>) o;
+				if (time != t.time) {
+					return time < t.time ? -1 : 1;
+				}
+				return sequence < t.sequence ? -1
+						: sequence > t.sequence ? 1 : 0;
+			}
+			long d = getDelay(TimeUnit.MILLISECONDS)
+					- o.getDelay(TimeUnit.MILLISECONDS);
+			return d < 0 ? -1 : d > 0 ? 1 : 0;
+		}
+	}
+}
@@ -0,0 +1,2 @@
+cls
+java Start GPSDirectory localhost 2000
\ No newline at end of file
@@ -1,2 +1,6 @@
 cls
-java Start GPSOffice localhost 2000 %1 %2 %3
\ No newline at end of file
+REM Usage: node name x y [nodeid]
+REM Start reg.bat and then dir.bat first: the GPS office directory gives every
+REM office a node ID for its track numbers. Without a directory, give every
+REM office a different nodeid from 0 to 4095.
+if "%4"=="" (java Start GPSOffice localhost 2000 %1 %2 %3) else (java -Dgps.nodeId=%4 Start GPSOffice localhost 2000 %1 %2 %3)
\ No newline at end of file